@@ -23,28 +23,194 @@
 
 package com.yalantis.cameramodule;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import timber.log.Timber;
 import android.content.Context;
+import android.os.Looper;
+import android.os.Process;
 
 import com.yalantis.cameramodule.interfaces.Initializer;
+import com.yalantis.cameramodule.manager.HandoffManager;
 import com.yalantis.cameramodule.manager.ImageManager;
 import com.yalantis.cameramodule.manager.LoggerManager;
 import com.yalantis.cameramodule.manager.SharedPrefManager;
 
+/**
+ * Initializes managers in dependency order on a background thread, so application start is not blocked. Only
+ * {@link LoggerManager} is initialized right away, so nothing logged during startup is lost.
+ * Every public manager method calls {@link #require(Initializer)} first, which initializes the manager on the
+ * calling thread if the background thread has not reached it yet, or waits until it is done. Screens that know
+ * which managers they use can call {@link #require(Initializer...)} up front.
+ */
 public enum ManagerInitializer implements Initializer {
     i;
 
+    private static final Initializer[] MANAGERS = {
+            LoggerManager.i, SharedPrefManager.i, ImageManager.i, HandoffManager.i
+    };
+
+    private static final Initializer[] NO_DEPENDENCIES = {};
+    private static final Initializer[] LOGGER = {LoggerManager.i};
+
+    private Context context;
+
+    private final Map<Initializer, Object> locks = new ConcurrentHashMap<>();
+    private final Map<Initializer, Timing> timings = new ConcurrentHashMap<>();
+    private final Set<Initializer> initializing =
+            Collections.newSetFromMap(new ConcurrentHashMap<Initializer, Boolean>());
+
+    /**
+     * Initializes {@link LoggerManager}, starts background initialization of the rest and returns.
+     */
     @Override
     public void init(Context context) {
-        SharedPrefManager.i.init(context);
-        LoggerManager.i.init(context);
-        ImageManager.i.init(context);
+        this.context = context.getApplicationContext();
+        ensure(LoggerManager.i);
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                // the main thread blocks on this thread in require(), a background priority would invert it
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+                long time = System.currentTimeMillis();
+                require(MANAGERS);
+                Timber.d("managers initialized: %1dms\n%2s", System.currentTimeMillis() - time, getTimingReport());
+            }
+        }, "manager-init");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Makes sure managers and their dependencies are initialized, blocking if needed.
+     */
+    public void require(Initializer... managers) {
+        if (context == null) {
+            throw new IllegalStateException("ManagerInitializer.init() was not called");
+        }
+        for (Initializer manager : managers) {
+            ensure(manager);
+        }
+    }
+
+    /**
+     * Guard for manager entry points, does not allocate once the manager is initialized.
+     */
+    public void require(Initializer manager) {
+        if (timings.containsKey(manager)) {
+            return;
+        }
+        if (context == null) {
+            throw new IllegalStateException("ManagerInitializer.init() was not called");
+        }
+        ensure(manager);
+    }
+
+    private void ensure(Initializer manager) {
+        if (timings.containsKey(manager)) {
+            return;
+        }
+        long waitStart = System.currentTimeMillis();
+        synchronized (getLock(manager)) {
+            if (timings.containsKey(manager)) {
+                long waited = System.currentTimeMillis() - waitStart;
+                if (waited > 0) {
+                    timings.get(manager).waited += waited;
+                }
+                return;
+            }
+            if (initializing.contains(manager)) {
+                // the manager uses itself while it initializes
+                return;
+            }
+            for (Initializer dependency : getDependencies(manager)) {
+                ensure(dependency);
+            }
+            long time = System.currentTimeMillis();
+            initializing.add(manager);
+            try {
+                manager.init(context);
+            } finally {
+                initializing.remove(manager);
+            }
+            Timing timing = new Timing();
+            timing.duration = System.currentTimeMillis() - time;
+            timing.onMainThread = Looper.myLooper() == Looper.getMainLooper();
+            timings.put(manager, timing);
+        }
+    }
+
+    /**
+     * @return managers that must be initialized before the given one
+     */
+    private static Initializer[] getDependencies(Initializer manager) {
+        if (manager == ImageManager.i || manager == HandoffManager.i) {
+            return LOGGER;
+        }
+        return NO_DEPENDENCIES;
+    }
+
+    private Object getLock(Initializer manager) {
+        Object lock = locks.get(manager);
+        if (lock == null) {
+            synchronized (locks) {
+                lock = locks.get(manager);
+                if (lock == null) {
+                    locks.put(manager, lock = new Object());
+                }
+            }
+        }
+        return lock;
+    }
+
+    public boolean isInitialized(Initializer manager) {
+        return timings.containsKey(manager);
+    }
+
+    /**
+     * @return init time of every initialized manager, the thread it ran on and how long callers waited for it
+     */
+    public String getTimingReport() {
+        StringBuilder builder = new StringBuilder();
+        for (Initializer manager : MANAGERS) {
+            Timing timing = timings.get(manager);
+            builder.append(manager.getClass().getSimpleName()).append(": ");
+            if (timing == null) {
+                builder.append("not initialized");
+            } else {
+                builder.append(timing.duration).append("ms")
+                        .append(timing.onMainThread ? " on main thread" : " in background");
+                if (timing.waited > 0) {
+                    builder.append(", waited ").append(timing.waited).append("ms");
+                }
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
     }
 
     @Override
     public void clear() {
-        SharedPrefManager.i.clear();
-        LoggerManager.i.clear();
-        ImageManager.i.clear();
+        for (int index = MANAGERS.length - 1; index >= 0; index--) {
+            Initializer manager = MANAGERS[index];
+            synchronized (getLock(manager)) {
+                if (timings.remove(manager) != null) {
+                    manager.clear();
+                }
+            }
+        }
+    }
+
+    private static class Timing {
+
+        private long duration;
+        private boolean onMainThread;
+        private volatile long waited;
+
     }
 
 }
@@ -31,22 +31,31 @@ import android.os.Bundle;
 import android.util.DisplayMetrics;
 import android.view.View;
 
+import timber.log.Timber;
+
 import com.squareup.picasso.Picasso;
-import com.squareup.picasso.Target;
+import com.yalantis.cameramodule.ManagerInitializer;
 import com.yalantis.cameramodule.R;
+import com.yalantis.cameramodule.interfaces.ProgressiveTarget;
+import com.yalantis.cameramodule.manager.HandoffManager;
 import com.yalantis.cameramodule.manager.ImageManager;
+import com.yalantis.cameramodule.model.LoadStage;
 
 public abstract class BasePhotoActivity extends BaseActivity {
 
     protected String path;
     protected String name;
+    private String captureId;
     protected Bitmap bitmap;
+    private Bitmap placeholder;
+    private long loadStart;
 
     protected View progressBar;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        ManagerInitializer.i.require(ImageManager.i, HandoffManager.i);
         showActionBar();
         showBack();
         setContentView(R.layout.activity_photo);
@@ -62,6 +71,8 @@ public abstract class BasePhotoActivity extends BaseActivity {
             throw new RuntimeException("There is no image name in extras");
         }
 
+        captureId = getIntent().getStringExtra(EXTRAS.CAPTURE_ID);
+
         progressBar = findViewById(R.id.progress);
 
     }
@@ -76,7 +87,17 @@ public abstract class BasePhotoActivity extends BaseActivity {
 
     protected abstract void showPhoto(Bitmap bitmap);
 
+    /**
+     * @return false if the screen should wait for the full bitmap instead of showing a low resolution placeholder
+     */
+    protected boolean acceptsPlaceholder() {
+        return true;
+    }
+
     protected void rotatePhoto(float angle) {
+        if (bitmap == null) {
+            return;
+        }
         synchronized (bitmap) {
             bitmap = ImageManager.i.rotatePhoto(path, angle);
             showPhoto(bitmap);
@@ -92,7 +113,14 @@ public abstract class BasePhotoActivity extends BaseActivity {
     protected void loadPhoto() {
         DisplayMetrics metrics = new DisplayMetrics();
         getWindowManager().getDefaultDisplay().getMetrics(metrics);
-        ImageManager.i.loadPhoto(path, metrics.widthPixels, metrics.heightPixels, loadingTarget);
+        loadStart = System.currentTimeMillis();
+        if (captureId != null) {
+            ImageManager.i.loadPhoto(path, captureId, metrics.widthPixels, metrics.heightPixels, loadingTarget);
+            // handoff is taken once, reloads after edits go to the file
+            captureId = null;
+        } else {
+            ImageManager.i.loadPhoto(path, metrics.widthPixels, metrics.heightPixels, loadingTarget);
+        }
     }
 
     protected void setFragment(Fragment fragment) {
@@ -102,13 +130,37 @@ public abstract class BasePhotoActivity extends BaseActivity {
                 .commit();
     }
 
-    private Target loadingTarget = new Target() {
+    private void releasePlaceholder() {
+        if (placeholder != null) {
+            placeholder.recycle();
+            placeholder = null;
+        }
+    }
+
+    private ProgressiveTarget loadingTarget = new ProgressiveTarget() {
+
+        @Override
+        public void onPlaceholderLoaded(Bitmap placeholder, LoadStage stage) {
+            if (!acceptsPlaceholder() || isFinishing()) {
+                placeholder.recycle();
+                return;
+            }
+            Timber.d("%1s shown: %2dms", stage, System.currentTimeMillis() - loadStart);
+            Bitmap previous = BasePhotoActivity.this.placeholder;
+            BasePhotoActivity.this.placeholder = placeholder;
+            showPhoto(placeholder);
+            if (previous != null) {
+                previous.recycle();
+            }
+        }
 
         @Override
         public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from) {
+            Timber.d("%1s shown: %2dms", LoadStage.SCREEN, System.currentTimeMillis() - loadStart);
             progressBar.setVisibility(View.GONE);
             BasePhotoActivity.this.bitmap = bitmap;
             showPhoto(bitmap);
+            releasePlaceholder();
         }
 
         @Override
@@ -145,6 +197,8 @@ public abstract class BasePhotoActivity extends BaseActivity {
 
         public static final String FROM_CAMERA = "from_camera";
 
+        public static final String CAPTURE_ID = "capture_id";
+
         public static final int REQUEST_PHOTO_EDIT = 7338;
 
         public static final int RESULT_EDITED = 338;
@@ -31,10 +31,16 @@ import android.text.TextUtils;
 import android.view.KeyEvent;
 import android.widget.Toast;
 import com.yalantis.cameramodule.CameraConst;
+import com.yalantis.cameramodule.ManagerInitializer;
 import com.yalantis.cameramodule.R;
 import com.yalantis.cameramodule.fragment.CameraFragment;
 import com.yalantis.cameramodule.interfaces.*;
+import com.yalantis.cameramodule.manager.HandoffManager;
+import com.yalantis.cameramodule.manager.ImageManager;
 import com.yalantis.cameramodule.manager.SharedPrefManager;
+import com.yalantis.cameramodule.model.OutputFormat;
+import com.yalantis.cameramodule.model.OutputPolicy;
+import com.yalantis.cameramodule.util.ImageEncoder;
 import com.yalantis.cameramodule.util.PhotoUtil;
 import com.yalantis.cameramodule.util.SavingPhotoTask;
 import timber.log.Timber;
@@ -50,22 +56,39 @@ public class CameraActivity extends BaseActivity implements PhotoTakenCallback,
     public static final String USE_FRONT_CAMERA = "use_front_camera";
     public static final String OPEN_PHOTO_PREVIEW = "open_photo_preview";
     public static final String LAYOUT_ID = "layout_id";
+    public static final String STEADY_SHOT = "steady_shot";
+    public static final String BURST_SIZE = "burst_size";
+    public static final String BURST_KEEP = "burst_keep";
+    public static final String STACK_SIZE = "stack_size";
+    public static final String DOCUMENT_MODE = "document_mode";
+    public static final String DOCUMENT_DPI = "document_dpi";
+    public static final String SNAPSHOT_MODE = "snapshot_mode";
+    public static final String MAX_PHOTO_BYTES = "max_photo_bytes";
+    public static final String OPTIMIZE_JPEG = "optimize_jpeg";
+    /**
+     * {@link OutputFormat} id, the format of {@link ImageManager#getOutputPolicy()} by default
+     */
+    public static final String OUTPUT_FORMAT = "output_format";
 
     private static final String IMG_PREFIX = "IMG_";
-    private static final String IMG_POSTFIX = ".jpg";
     private static final String TIME_FORMAT = "yyyyMMdd_HHmmss";
 
     private KeyEventsListener keyEventsListener;
     private PhotoSavedListener photoSavedListener;
 
     private String path;
+    private OutputPolicy outputPolicy;
     private boolean openPreview;
 
     private boolean saving;
+    private boolean previewOpened;
+    private String lastTimeStamp;
+    private int nameIndex;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        ManagerInitializer.i.require(SharedPrefManager.i, ImageManager.i, HandoffManager.i);
         hideActionBar();
         setContentView(R.layout.activity_with_fragment);
         if (TextUtils.isEmpty(path = getIntent().getStringExtra(PATH))) {
@@ -75,6 +98,11 @@ public class CameraActivity extends BaseActivity implements PhotoTakenCallback,
         if (openPreview != SharedPrefManager.i.isOpenPhotoPreview()) {
             SharedPrefManager.i.setOpenPhotoPreview(openPreview);
         }
+        outputPolicy = ImageManager.i.getOutputPolicy();
+        OutputFormat format = OutputFormat.getOutputFormatById(getIntent().getIntExtra(OUTPUT_FORMAT, -1));
+        if (format != null && format != outputPolicy.getFormat()) {
+            outputPolicy = outputPolicy.withFormat(format);
+        }
         boolean useFrontCamera = getIntent().getBooleanExtra(USE_FRONT_CAMERA, SharedPrefManager.i.useFrontCamera());
         if (useFrontCamera != SharedPrefManager.i.useFrontCamera()) {
             SharedPrefManager.i.setUseFrontCamera(useFrontCamera);
@@ -99,6 +127,15 @@ public class CameraActivity extends BaseActivity implements PhotoTakenCallback,
                 .commit();
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        SharedPrefManager.i.flush();
+        if (CameraConst.DEBUG) {
+            Timber.d("Encoders:\n" + ImageEncoder.getReport());
+        }
+    }
+
     private Bundle createCameraParams() {
         Bundle bundle = new Bundle();
 
@@ -108,13 +145,32 @@ public class CameraActivity extends BaseActivity implements PhotoTakenCallback,
         bundle.putInt(CameraFragment.QUALITY, SharedPrefManager.i.getCameraQuality());
         bundle.putInt(CameraFragment.FOCUS_MODE, SharedPrefManager.i.getCameraFocusMode());
         bundle.putBoolean(CameraFragment.FRONT_CAMERA, SharedPrefManager.i.useFrontCamera());
+        bundle.putString(CameraFragment.PATH, path);
+        bundle.putBoolean(CameraFragment.STEADY_SHOT, getIntent().getBooleanExtra(STEADY_SHOT, false));
+        bundle.putInt(CameraFragment.BURST_SIZE, getIntent().getIntExtra(BURST_SIZE, 1));
+        bundle.putInt(CameraFragment.BURST_KEEP, getIntent().getIntExtra(BURST_KEEP, 1));
+        bundle.putInt(CameraFragment.STACK_SIZE, getIntent().getIntExtra(STACK_SIZE, 1));
+        bundle.putBoolean(CameraFragment.DOCUMENT_MODE, getIntent().getBooleanExtra(DOCUMENT_MODE, false));
+        bundle.putInt(CameraFragment.DOCUMENT_DPI,
+                getIntent().getIntExtra(DOCUMENT_DPI, CameraFragment.DEFAULT_DOCUMENT_DPI));
+        bundle.putBoolean(CameraFragment.SNAPSHOT_MODE, getIntent().getBooleanExtra(SNAPSHOT_MODE, false));
+        // JPEG photos without a size limit are rotated strip by strip when they are saved
+        bundle.putBoolean(CameraFragment.STREAMING_SAVE, outputPolicy.getFormat() == OutputFormat.JPEG
+                && getIntent().getIntExtra(MAX_PHOTO_BYTES, 0) == 0);
 
         return bundle;
     }
 
     private String createName() {
         String timeStamp = new SimpleDateFormat(TIME_FORMAT).format(new Date());
-        return IMG_PREFIX + timeStamp + IMG_POSTFIX;
+        if (timeStamp.equals(lastTimeStamp)) {
+            // several burst frames can be kept within one second
+            nameIndex++;
+            return IMG_PREFIX + timeStamp + "_" + nameIndex + outputPolicy.getFormat().getExtension();
+        }
+        lastTimeStamp = timeStamp;
+        nameIndex = 0;
+        return IMG_PREFIX + timeStamp + outputPolicy.getFormat().getExtension();
     }
 
     @Override
@@ -129,7 +185,14 @@ public class CameraActivity extends BaseActivity implements PhotoTakenCallback,
 
     private void savePhoto(byte[] data, String name, String path, int orientation) {
         saving = true;
-        new SavingPhotoTask(data, name, path, orientation, this).execute();
+        SavingPhotoTask task = new SavingPhotoTask(data, name, path, orientation, ImageManager.i.getRenditions(), this);
+        if (openPreview) {
+            task.setCaptureId(name);
+        }
+        task.setOutputPolicy(outputPolicy);
+        task.setMaxBytes(getIntent().getIntExtra(MAX_PHOTO_BYTES, 0));
+        task.setOptimizeHuffman(getIntent().getBooleanExtra(OPTIMIZE_JPEG, false));
+        task.execute();
     }
 
     @Override
@@ -140,7 +203,7 @@ public class CameraActivity extends BaseActivity implements PhotoTakenCallback,
         if (CameraConst.DEBUG) {
             printExifOrientation(path);
         }
-        if (openPreview) {
+        if (openPreview && !previewOpened) {
             openPreview(path, name);
         }
         if (photoSavedListener != null) {
@@ -149,10 +212,12 @@ public class CameraActivity extends BaseActivity implements PhotoTakenCallback,
     }
 
     private void openPreview(String path, String name) {
+        previewOpened = true;
         Intent intent = new Intent(this, PhotoPreviewActivity.class);
         intent.putExtra(BasePhotoActivity.EXTRAS.PATH, path);
         intent.putExtra(BasePhotoActivity.EXTRAS.NAME, name);
         intent.putExtra(BasePhotoActivity.EXTRAS.FROM_CAMERA, true);
+        intent.putExtra(BasePhotoActivity.EXTRAS.CAPTURE_ID, name);
         startActivityForResult(intent, BasePhotoActivity.EXTRAS.REQUEST_PHOTO_EDIT);
     }
 
@@ -160,10 +225,11 @@ public class CameraActivity extends BaseActivity implements PhotoTakenCallback,
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
         if (requestCode == BasePhotoActivity.EXTRAS.REQUEST_PHOTO_EDIT) {
+            previewOpened = false;
             switch (resultCode) {
                 case BasePhotoActivity.EXTRAS.RESULT_DELETED:
                     String path = data.getStringExtra(BasePhotoActivity.EXTRAS.PATH);
-                    PhotoUtil.deletePhoto(path);
+                    PhotoUtil.deletePhoto(path, ImageManager.i.getRenditions());
                     break;
             }
         }
@@ -54,6 +54,12 @@ public class PhotoCropActivity extends BasePhotoActivity implements PhotoCropped
         finish();
     }
 
+    @Override
+    protected boolean acceptsPlaceholder() {
+        // crop rect is calculated relative to the shown bitmap
+        return false;
+    }
+
     @Override
     protected void showPhoto(Bitmap bitmap) {
         if (cropFragment == null) {
@@ -25,26 +25,24 @@ package com.yalantis.cameramodule.control;
 
 import android.app.Activity;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.PorterDuff;
+import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.hardware.Camera;
+import android.os.Build;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
-import android.widget.ImageView;
 
 import com.yalantis.cameramodule.interfaces.FocusCallback;
-import com.yalantis.cameramodule.interfaces.KeyEventsListener;
+import com.yalantis.cameramodule.interfaces.ZoomCallback;
 import com.yalantis.cameramodule.model.FocusMode;
+import com.yalantis.cameramodule.util.FrameAnalyzerPipeline;
+import com.yalantis.cameramodule.util.YuvConverter;
 
-import java.math.BigDecimal;
 import java.util.Arrays;
 import java.util.List;
 
@@ -54,37 +52,55 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
 
     private static final int DISPLAY_ORIENTATION = 90;
     private static final float FOCUS_AREA_SIZE = 75f;
-    private static final float STROKE_WIDTH = 5f;
     private static final float FOCUS_AREA_FULL_SIZE = 2000f;
-    private static final int ACCURACY = 3;
+    /**
+     * Longest time the shutter waits for a moving lens to settle in continuous focus modes
+     */
+    private static final int MAX_FOCUS_MOVE_WAIT = 1500;
+    /**
+     * Longest side of the freeze frame, the preview frame is reduced by 2 or 4 to fit it
+     */
+    private static final int FREEZE_FRAME_SIZE = 640;
 
     private Activity activity;
     private Camera camera;
 
-    private ImageView canvasFrame;
-    private Canvas canvas;
-    private Paint paint;
+    private FocusOverlayView focusOverlay;
+    private boolean surfaceReady;
     private FocusMode focusMode = FocusMode.AUTO;
 
     private boolean hasAutoFocus;
+    private List<String> supportedFocusModes;
     private boolean focusing;
     private boolean focused;
+    private boolean lensMoving;
+    private boolean tracksFocusMove;
+    private boolean waitingForLens;
+    private long shutterTime;
+    private long sweepStartTime;
+    private long sweepTotalTime;
+    private int sweepCount;
+    private long avoidedWaitTotal;
     private float focusKoefW;
     private float focusKoefH;
-    private float prevScaleFactor;
     private FocusCallback focusCallback;
     private Rect tapArea;
-    private KeyEventsListener keyEventsListener;
+    private ZoomCallback zoomCallback;
+    private int gestureStartZoom;
+    private float gestureScale;
+    private FrameAnalyzerPipeline analyzers;
+    private YuvConverter freezeConverter;
 
-    public CameraPreview(Activity activity, Camera camera, ImageView canvasFrame, FocusCallback focusCallback, KeyEventsListener keyEventsListener) {
+    public CameraPreview(Activity activity, Camera camera, FocusOverlayView focusOverlay, FocusCallback focusCallback, ZoomCallback zoomCallback) {
         super(activity);
         this.activity = activity;
         this.camera = camera;
-        this.canvasFrame = canvasFrame;
+        this.focusOverlay = focusOverlay;
         this.focusCallback = focusCallback;
-        this.keyEventsListener = keyEventsListener;
+        this.zoomCallback = zoomCallback;
+        analyzers = new FrameAnalyzerPipeline(camera);
 
-        List<String> supportedFocusModes = camera.getParameters().getSupportedFocusModes();
+        supportedFocusModes = camera.getParameters().getSupportedFocusModes();
         hasAutoFocus = supportedFocusModes != null && supportedFocusModes.contains(Camera.Parameters.FOCUS_MODE_AUTO);
 
         initHolder();
@@ -100,15 +116,6 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         }
     }
 
-    private void initFocusDrawingTools(int width, int height) {
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_4444);
-        canvas = new Canvas(bitmap);
-        paint = new Paint();
-        paint.setColor(Color.GREEN);
-        paint.setStrokeWidth(STROKE_WIDTH);
-        canvasFrame.setImageBitmap(bitmap);
-    }
-
     public void surfaceCreated(SurfaceHolder holder) {
         Timber.d("surfaceCreated");
         // The Surface has been created, now tell the camera where to draw the preview.
@@ -124,7 +131,7 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         Timber.d("surfaceChanged(%1d, %2d)", width, height);
         // If your preview can change or rotate, take care of those events here.
         // Make sure to stop the preview before resizing or reformatting it.
-        initFocusDrawingTools(width, height);
+        surfaceReady = true;
         initFocusKoefs(width, height);
         if (holder.getSurface() == null) {
             // preview surface does not exist
@@ -141,13 +148,101 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         focusKoefH = height / FOCUS_AREA_FULL_SIZE;
     }
 
+    /**
+     * @return registry of analyzers that get preview frames
+     */
+    public FrameAnalyzerPipeline getAnalyzers() {
+        return analyzers;
+    }
+
+    /**
+     * Converts the last preview frame at reduced resolution and turns it the way the preview shows it. Needs
+     * {@link FrameAnalyzerPipeline#setRetainLastFrame(boolean)}, call on the main thread.
+     *
+     * @param mirror true for the front camera, whose preview is shown mirrored
+     * @return the frame or null if there is none
+     */
+    public Bitmap getFreezeFrame(boolean mirror) {
+        byte[] frame = analyzers.getLastFrame();
+        if (frame == null) {
+            return null;
+        }
+        long time = System.currentTimeMillis();
+        int width = analyzers.getFrameWidth();
+        int height = analyzers.getFrameHeight();
+        int factor = 1;
+        while (factor < 4 && Math.max(width, height) / factor > FREEZE_FRAME_SIZE) {
+            factor *= 2;
+        }
+        if (freezeConverter == null) {
+            freezeConverter = new YuvConverter();
+        }
+        int[] argb = freezeConverter.toArgb(frame, width, height, factor);
+        int outWidth = YuvConverter.getOutputWidth(width, factor);
+        int outHeight = YuvConverter.getOutputHeight(height, factor);
+        Bitmap bitmap = Bitmap.createBitmap(argb, outWidth, outHeight, Bitmap.Config.ARGB_8888);
+        Matrix matrix = new Matrix();
+        matrix.postRotate(DISPLAY_ORIENTATION);
+        if (mirror) {
+            matrix.postScale(-1, 1);
+        }
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, outWidth, outHeight, matrix, false);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        Timber.d("freeze frame %1dx%2d: %3dms", rotated.getWidth(), rotated.getHeight(),
+                System.currentTimeMillis() - time);
+        return rotated;
+    }
+
     public void setFocusMode(FocusMode focusMode) {
         clearCameraFocus();
+        if (focusMode.isContinuous() && !isFocusModeSupported(focusMode)) {
+            focusMode = FocusMode.AUTO;
+        }
         this.focusMode = focusMode;
         focusing = false;
+        applyFocusMode();
         setOnTouchListener(new CameraTouchListener());
     }
 
+    /**
+     * @return true if the camera supports the focus mode
+     */
+    public boolean isFocusModeSupported(FocusMode focusMode) {
+        return supportedFocusModes != null && supportedFocusModes.contains(focusMode.getCameraMode());
+    }
+
+    /**
+     * Sets camera focus mode and starts tracking lens movement in continuous modes.
+     */
+    private void applyFocusMode() {
+        String mode = isFocusModeSupported(focusMode) ? focusMode.getCameraMode() : Camera.Parameters.FOCUS_MODE_AUTO;
+        try {
+            Camera.Parameters parameters = camera.getParameters();
+            if (supportedFocusModes != null && supportedFocusModes.contains(mode)) {
+                parameters.setFocusMode(mode);
+                camera.setParameters(parameters);
+            }
+        } catch (Exception e) {
+            Timber.e(e, "applyFocusMode");
+        }
+        lensMoving = false;
+        tracksFocusMove = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            if (isContinuousFocus()) {
+                camera.setAutoFocusMoveCallback(new FocusMoveListener());
+                tracksFocusMove = true;
+            } else {
+                camera.setAutoFocusMoveCallback(null);
+            }
+        }
+    }
+
+    private boolean isContinuousFocus() {
+        return hasAutoFocus && focusMode.isContinuous() && isFocusModeSupported(focusMode);
+    }
+
     private void startFocusing() {
         if (!focusing) {
             focused = false;
@@ -155,12 +250,24 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
             if (focusMode == FocusMode.AUTO || (focusMode == FocusMode.TOUCH && tapArea == null)) {
                 drawFocusFrame(createAutoFocusRect());
             }
+            sweepStartTime = System.currentTimeMillis();
             camera.autoFocus(this);
         }
     }
 
     public void takePicture() {
-        if (hasAutoFocus) {
+        shutterTime = System.currentTimeMillis();
+        if (isContinuousFocus()) {
+            if (!tracksFocusMove) {
+                // in continuous modes autoFocus returns at once if the lens is not scanning
+                startFocusing();
+            } else if (lensMoving) {
+                waitingForLens = true;
+                postDelayed(lensWaitTimeout, MAX_FOCUS_MOVE_WAIT);
+            } else {
+                focused();
+            }
+        } else if (hasAutoFocus) {
             if (focusMode == FocusMode.AUTO) {
                 startFocusing();
             }
@@ -189,10 +296,9 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         try {
             camera.setPreviewDisplay(holder);
             camera.setDisplayOrientation(DISPLAY_ORIENTATION);
-            Camera.Parameters parameters = camera.getParameters();
-            parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
-            camera.setParameters(parameters);
+            applyFocusMode();
             camera.startPreview();
+            analyzers.restart();
         } catch (Exception e) {
             Timber.e(e, "Error starting camera preview: " + e.getMessage());
         }
@@ -208,20 +314,32 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
     }
 
     private void drawFocusFrame(Rect rect) {
-        canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
-        canvas.drawLine(rect.left, rect.top, rect.right, rect.top, paint);
-        canvas.drawLine(rect.right, rect.top, rect.right, rect.bottom, paint);
-        canvas.drawLine(rect.right, rect.bottom, rect.left, rect.bottom, paint);
-        canvas.drawLine(rect.left, rect.bottom, rect.left, rect.top, paint);
-        canvasFrame.draw(canvas);
-        canvasFrame.invalidate();
+        focusOverlay.showFocusing(rect);
+    }
+
+    /**
+     * Outlines the document over the preview, or clears the outline if quad is null.
+     *
+     * @param quad corners in parts of the preview frame, which is shown rotated by {@link #DISPLAY_ORIENTATION}
+     */
+    public void drawDocumentFrame(float[] quad) {
+        if (quad == null) {
+            focusOverlay.clearDocument();
+            return;
+        }
+        float[] corners = new float[quad.length];
+        for (int i = 0; i < quad.length; i += 2) {
+            corners[i] = (1 - quad[i + 1]) * getWidth();
+            corners[i + 1] = quad[i] * getHeight();
+        }
+        focusOverlay.showDocument(corners);
     }
 
     private void clearCameraFocus() {
         if (hasAutoFocus) {
             focused = false;
             camera.cancelAutoFocus();
-            if (canvas != null) {
+            if (surfaceReady) {
                 tapArea = null;
                 try {
                     Camera.Parameters parameters = camera.getParameters();
@@ -231,9 +349,7 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
                 } catch (Exception e) {
                     Timber.e(e, "clearCameraFocus");
                 } finally {
-                    canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
-                    canvasFrame.draw(canvas);
-                    canvasFrame.invalidate();
+                    focusOverlay.clear();
                 }
             }
         }
@@ -241,9 +357,14 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
 
     @Override
     public void onAutoFocus(boolean success, Camera camera) {
+        if (focusing && !focusMode.isContinuous()) {
+            sweepTotalTime += System.currentTimeMillis() - sweepStartTime;
+            sweepCount++;
+        }
         focusing = false;
         focused = true;
-        if (focusMode == FocusMode.AUTO) {
+        focusOverlay.showResult(success);
+        if (focusMode == FocusMode.AUTO || isContinuousFocus()) {
             focused();
         }
         if (focusMode == FocusMode.TOUCH && tapArea == null) {
@@ -252,6 +373,7 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
     }
 
     private void focused() {
+        logFocusWait();
         focusing = false;
         if (focusCallback != null) {
             focusCallback.onFocused(camera);
@@ -262,6 +384,54 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         clearCameraFocus();
     }
 
+    private Runnable lensWaitTimeout = new Runnable() {
+
+        @Override
+        public void run() {
+            if (waitingForLens) {
+                Timber.d("lens did not settle in %1dms", MAX_FOCUS_MOVE_WAIT);
+                waitingForLens = false;
+                focused();
+            }
+        }
+    };
+
+    /**
+     * Logs how long the shot waited for focus and, in continuous modes, how much of an average
+     * autofocus sweep was avoided.
+     */
+    private void logFocusWait() {
+        if (shutterTime == 0) {
+            return;
+        }
+        long wait = System.currentTimeMillis() - shutterTime;
+        shutterTime = 0;
+        if (focusMode.isContinuous() && sweepCount > 0) {
+            long avoided = Math.max(0, sweepTotalTime / sweepCount - wait);
+            avoidedWaitTotal += avoided;
+            Timber.d("focus wait: %1dms, avoided: %2dms, avoided in total: %3dms", wait, avoided, avoidedWaitTotal);
+        } else {
+            Timber.d("focus wait: %1dms (%2s)", wait, focusMode);
+        }
+    }
+
+    /**
+     * Tracks lens movement in continuous focus modes, so the shutter fires at once when the lens is settled.
+     */
+    private class FocusMoveListener implements Camera.AutoFocusMoveCallback {
+
+        @Override
+        public void onAutoFocusMoving(boolean start, Camera camera) {
+            lensMoving = start;
+            if (!start && waitingForLens) {
+                waitingForLens = false;
+                removeCallbacks(lensWaitTimeout);
+                focused();
+            }
+        }
+
+    }
+
     protected void focusOnTouch(MotionEvent event) {
         tapArea = calculateTapArea(event.getX(), event.getY(), 1f);
         Camera.Parameters parameters = camera.getParameters();
@@ -332,18 +502,12 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
         return x;
     }
 
+    /**
+     * Maps accumulated pinch scale to zoom ratio relative to the zoom the gesture started at.
+     */
     private void scale(float scaleFactor) {
-        scaleFactor = BigDecimal.valueOf(scaleFactor).setScale(ACCURACY, BigDecimal.ROUND_HALF_UP).floatValue();
-        if (Float.compare(scaleFactor, 1.0f) == 0 || Float.compare(scaleFactor, prevScaleFactor) == 0) {
-            return;
-        }
-        if (scaleFactor > 1f) {
-            keyEventsListener.zoomIn();
-        }
-        if (scaleFactor < 1f) {
-            keyEventsListener.zoomOut();
-        }
-        prevScaleFactor = scaleFactor;
+        gestureScale *= scaleFactor;
+        zoomCallback.setZoomRatio(Math.round(gestureStartZoom * gestureScale));
     }
 
     private class CameraTouchListener implements OnTouchListener {
@@ -353,7 +517,10 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
 
         @Override
         public boolean onTouch(View v, MotionEvent event) {
-            clearCameraFocus();
+            // once per gesture, every call goes to the camera and moves and scale events come in a stream
+            if (event.getActionMasked() == MotionEvent.ACTION_DOWN) {
+                clearCameraFocus();
+            }
             if (event.getPointerCount() > 1) {
                 mScaleDetector.onTouchEvent(event);
                 return true;
@@ -367,6 +534,13 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
 
         private class ScaleListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
 
+            @Override
+            public boolean onScaleBegin(ScaleGestureDetector detector) {
+                gestureStartZoom = zoomCallback.getZoomRatio();
+                gestureScale = 1f;
+                return true;
+            }
+
             @Override
             public boolean onScale(ScaleGestureDetector detector) {
                 scale(detector.getScaleFactor());
@@ -0,0 +1,259 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.control;
+
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.animation.ValueAnimator;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Transparent view over the camera preview that draws the focus frame and the detected document outline. Only
+ * the area around the frame is invalidated, nothing is allocated while drawing.
+ */
+public class FocusOverlayView extends View {
+
+    public enum State {
+        NONE, FOCUSING, SUCCESS, FAIL
+    }
+
+    private static final float STROKE_WIDTH = 5f;
+    private static final float START_SCALE = 1.25f;
+    private static final int FOCUSING_DURATION = 300;
+    private static final int FADE_DURATION = 200;
+
+    private static final int COLOR_FOCUSING = Color.WHITE;
+    private static final int COLOR_SUCCESS = Color.GREEN;
+    private static final int COLOR_FAIL = Color.RED;
+    private static final int COLOR_DOCUMENT = 0xFF33B5E5;
+
+    private Paint paint;
+    private State state = State.NONE;
+    private Rect frame = new Rect();
+    private Rect dirty = new Rect();
+    private float scale = 1f;
+    private float alpha = 1f;
+
+    private Paint documentPaint;
+    private Path documentPath = new Path();
+    private float[] document = new float[8];
+    private boolean hasDocument;
+
+    private ValueAnimator scaleAnimator;
+    private ValueAnimator fadeAnimator;
+
+    public FocusOverlayView(Context context) {
+        super(context);
+        init();
+    }
+
+    public FocusOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeWidth(STROKE_WIDTH);
+        documentPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        documentPaint.setStyle(Paint.Style.STROKE);
+        documentPaint.setStrokeWidth(STROKE_WIDTH);
+        documentPaint.setColor(COLOR_DOCUMENT);
+
+        scaleAnimator = ValueAnimator.ofFloat(0f, 1f);
+        scaleAnimator.setDuration(FOCUSING_DURATION);
+        scaleAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                scale = START_SCALE + (1f - START_SCALE) * animation.getAnimatedFraction();
+                invalidateFrame();
+            }
+        });
+
+        fadeAnimator = ValueAnimator.ofFloat(0f, 1f);
+        fadeAnimator.setDuration(FADE_DURATION);
+        fadeAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                alpha = 1f - animation.getAnimatedFraction();
+                invalidateFrame();
+            }
+        });
+        fadeAnimator.addListener(new AnimatorListenerAdapter() {
+
+            private boolean cancelled;
+
+            @Override
+            public void onAnimationStart(Animator animation) {
+                cancelled = false;
+            }
+
+            @Override
+            public void onAnimationCancel(Animator animation) {
+                cancelled = true;
+            }
+
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                if (!cancelled) {
+                    state = State.NONE;
+                    invalidateFrame();
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows the frame around the area in view coordinates and animates it while focusing.
+     */
+    public void showFocusing(Rect area) {
+        fadeAnimator.cancel();
+        invalidateFrame();
+        frame.set(area);
+        state = State.FOCUSING;
+        alpha = 1f;
+        scale = START_SCALE;
+        scaleAnimator.start();
+    }
+
+    public void showResult(boolean success) {
+        if (state == State.NONE) {
+            return;
+        }
+        scaleAnimator.cancel();
+        scale = 1f;
+        state = success ? State.SUCCESS : State.FAIL;
+        invalidateFrame();
+    }
+
+    /**
+     * Fades the frame out.
+     */
+    public void clear() {
+        if (state == State.NONE || fadeAnimator.isRunning()) {
+            return;
+        }
+        scaleAnimator.cancel();
+        fadeAnimator.start();
+    }
+
+    /**
+     * Outlines the document.
+     *
+     * @param corners four x, y pairs in view coordinates
+     */
+    public void showDocument(float[] corners) {
+        invalidateDocument();
+        System.arraycopy(corners, 0, document, 0, document.length);
+        hasDocument = true;
+        invalidateDocument();
+    }
+
+    public void clearDocument() {
+        if (hasDocument) {
+            invalidateDocument();
+            hasDocument = false;
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    private void invalidateFrame() {
+        if (frame.isEmpty()) {
+            return;
+        }
+        int inset = (int) Math.ceil(Math.max(frame.width(), frame.height()) * (START_SCALE - 1f) / 2 + STROKE_WIDTH);
+        dirty.set(frame);
+        dirty.inset(-inset, -inset);
+        invalidate(dirty);
+    }
+
+    private void invalidateDocument() {
+        if (!hasDocument) {
+            return;
+        }
+        float left = document[0], top = document[1], right = document[0], bottom = document[1];
+        for (int i = 2; i < document.length; i += 2) {
+            left = Math.min(left, document[i]);
+            right = Math.max(right, document[i]);
+            top = Math.min(top, document[i + 1]);
+            bottom = Math.max(bottom, document[i + 1]);
+        }
+        int inset = (int) Math.ceil(STROKE_WIDTH);
+        invalidate((int) left - inset, (int) top - inset, (int) right + inset, (int) bottom + inset);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (hasDocument) {
+            documentPath.reset();
+            documentPath.moveTo(document[0], document[1]);
+            for (int i = 2; i < document.length; i += 2) {
+                documentPath.lineTo(document[i], document[i + 1]);
+            }
+            documentPath.close();
+            canvas.drawPath(documentPath, documentPaint);
+        }
+        if (state == State.NONE || frame.isEmpty()) {
+            return;
+        }
+        switch (state) {
+            case FOCUSING:
+                paint.setColor(COLOR_FOCUSING);
+                break;
+            case SUCCESS:
+                paint.setColor(COLOR_SUCCESS);
+                break;
+            case FAIL:
+                paint.setColor(COLOR_FAIL);
+                break;
+        }
+        paint.setAlpha((int) (255 * alpha));
+        float halfWidth = frame.width() * scale / 2;
+        float halfHeight = frame.height() * scale / 2;
+        float centerX = frame.exactCenterX();
+        float centerY = frame.exactCenterY();
+        canvas.drawRect(centerX - halfWidth, centerY - halfHeight, centerX + halfWidth, centerY + halfHeight, paint);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        scaleAnimator.cancel();
+        fadeAnimator.cancel();
+        super.onDetachedFromWindow();
+    }
+
+}
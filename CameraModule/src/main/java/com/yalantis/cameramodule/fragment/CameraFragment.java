@@ -24,7 +24,10 @@
 package com.yalantis.cameramodule.fragment;
 
 import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.hardware.Camera;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
 import android.view.LayoutInflater;
@@ -36,17 +39,32 @@ import android.widget.*;
 import com.yalantis.cameramodule.CameraConst;
 import com.yalantis.cameramodule.R;
 import com.yalantis.cameramodule.control.CameraPreview;
+import com.yalantis.cameramodule.control.FocusOverlayView;
 import com.yalantis.cameramodule.interfaces.CameraParamsChangedListener;
+import com.yalantis.cameramodule.interfaces.DocumentCallback;
 import com.yalantis.cameramodule.interfaces.FocusCallback;
 import com.yalantis.cameramodule.interfaces.KeyEventsListener;
 import com.yalantis.cameramodule.interfaces.PhotoSavedListener;
 import com.yalantis.cameramodule.interfaces.PhotoTakenCallback;
+import com.yalantis.cameramodule.interfaces.PreviewFrameCallback;
 import com.yalantis.cameramodule.interfaces.RawPhotoTakenCallback;
+import com.yalantis.cameramodule.interfaces.SteadyShotCallback;
+import com.yalantis.cameramodule.interfaces.ZoomCallback;
 import com.yalantis.cameramodule.model.FlashMode;
 import com.yalantis.cameramodule.model.FocusMode;
 import com.yalantis.cameramodule.model.HDRMode;
 import com.yalantis.cameramodule.model.Quality;
 import com.yalantis.cameramodule.model.Ratio;
+import com.yalantis.cameramodule.util.BurstSelectionTask;
+import com.yalantis.cameramodule.util.DocumentAnalyzer;
+import com.yalantis.cameramodule.util.DocumentWarpTask;
+import com.yalantis.cameramodule.util.HdrMergeTask;
+import com.yalantis.cameramodule.util.PictureSizeSelector;
+import com.yalantis.cameramodule.util.PreviewSizeSelector;
+import com.yalantis.cameramodule.util.SnapshotTask;
+import com.yalantis.cameramodule.util.StackingTask;
+import com.yalantis.cameramodule.util.SteadyShotDetector;
+import com.yalantis.cameramodule.util.SteadyShotTrigger;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -56,7 +74,7 @@ import java.util.Map;
 
 import timber.log.Timber;
 
-public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragment implements PhotoSavedListener, KeyEventsListener, CameraParamsChangedListener, FocusCallback {
+public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragment implements PhotoSavedListener, KeyEventsListener, CameraParamsChangedListener, FocusCallback, ZoomCallback {
 
     public static final String QUALITY = "quality";
     public static final String RATIO = "ratio";
@@ -64,6 +82,22 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
     public static final String FLASH_MODE = "flash_mode";
     public static final String HDR_MODE = "hdr_mode";
     public static final String FRONT_CAMERA = "front_camera";
+    public static final String PATH = "path";
+    public static final String FOCUS_MODES = "focus_modes";
+    public static final String STEADY_SHOT = "steady_shot";
+    public static final String BURST_SIZE = "burst_size";
+    public static final String BURST_KEEP = "burst_keep";
+    public static final String STACK_SIZE = "stack_size";
+    public static final String DOCUMENT_MODE = "document_mode";
+    public static final String DOCUMENT_DPI = "document_dpi";
+    public static final int DEFAULT_DOCUMENT_DPI = 200;
+    public static final String SOFTWARE_HDR = "software_hdr";
+    public static final String SNAPSHOT_MODE = "snapshot_mode";
+    /**
+     * Photos are saved through {@link com.yalantis.cameramodule.util.StripPipeline}, so picture sizes are not limited
+     * by full size bitmaps in the heap
+     */
+    public static final String STREAMING_SAVE = "streaming_save";
     private PhotoTakenCallback callback;
     private RawPhotoTakenCallback rawCallback;
     private CameraParamsChangedListener paramsChangedListener;
@@ -77,12 +111,18 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
     private int mScreenHeight;
     private int mNavigationBarHeight;
     private int mStatusBarHeight;
-    private List<Integer> zoomRatios;
+    private int[] zoomRatios;
     private int zoomIndex;
     private int minZoomIndex;
     private int maxZoomIndex;
+    private boolean smoothZoomSupported;
+    private boolean smoothZooming;
+    private int targetZoomIndex;
+    private long zoomFrameInterval;
+    private long lastZoomTime;
 
     private Map<Ratio, Camera.Size> previewSizes;
+    private int[] previewFpsRange;
     private Map<Ratio, Map<Quality, Camera.Size>> pictureSizes;
 
     private int layoutId;
@@ -96,10 +136,45 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
     private TextView mZoomRatioTextView;
     private HDRMode hdrMode;
     private boolean supportedHDR = false;
+    private boolean supportedSoftwareHDR = false;
     private boolean supportedFlash = false;
+    private boolean steadyShot;
+    private SteadyShotTrigger steadyShotTrigger;
+    private int burstSize = 1;
+    private int burstKeep = 1;
+    private int stackSize = 1;
+    private boolean documentMode;
+    private int documentDpi = DEFAULT_DOCUMENT_DPI;
+    private DocumentAnalyzer documentAnalyzer;
+    private float[] documentQuad;
+    private boolean snapshotMode;
+    private ImageView freezeFrame;
+    private ImageView thumbnail;
+    private List<byte[]> burstFrames = new ArrayList<>();
+
+    /**
+     * Exposure value of the dark and bright bracket frames of software HDR
+     */
+    private static final float BRACKET_EV = 2f;
+
+    /**
+     * Time for the preview to settle at new exposure compensation before the next bracket frame
+     */
+    private static final long BRACKET_SETTLE_DELAY = 300;
+
+    private int[] bracket;
+
+    /**
+     * Degrees the device orientation has to move past a 45 degree boundary before the orientation bucket changes
+     */
+    private static final int ORIENTATION_HYSTERESIS = 10;
 
     private int cameraId;
+    private Camera.CameraInfo cameraInfo;
+    private int deviceOrientation = OrientationEventListener.ORIENTATION_UNKNOWN;
     private int outputOrientation;
+    private int appliedRotation = -1;
+    private int shotOrientation;
 
     public static CameraFragment newInstance(int layoutId, PhotoTakenCallback callback, Bundle params) {
         CameraFragment fragment = new CameraFragment();
@@ -128,12 +203,12 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
             return;
         }
         initScreenParams();
+        outputOrientation = getCameraPictureRotation(0);
         parameters = camera.getParameters();
-        zoomRatios = parameters.getZoomRatios();
-        zoomIndex = minZoomIndex = 0;
-        maxZoomIndex = parameters.getMaxZoom();
-        previewSizes = buildPreviewSizesRatioMap(parameters.getSupportedPreviewSizes());
-        pictureSizes = buildPictureSizesRatioMap(parameters.getSupportedPictureSizes());
+        initZoom();
+        previewSizes = selectPreviewSizes(parameters, 0);
+        pictureSizes = buildPictureSizesRatioMap(parameters.getSupportedPictureSizes(),
+                getArguments().getString(PATH));
         List<String> sceneModes = parameters.getSupportedSceneModes();
         if (sceneModes != null) {
             for (String mode : sceneModes) {
@@ -143,6 +218,9 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
                 }
             }
         }
+        supportedSoftwareHDR = parameters.getMinExposureCompensation() < 0
+                && parameters.getMaxExposureCompensation() > 0
+                && parameters.getExposureCompensationStep() > 0;
         //it returns false positive
         /*getActivity().getApplicationContext().getPackageManager()
                 .hasSystemFeature(PackageManager.FEATURE_CAMERA_FLASH);*/
@@ -165,6 +243,7 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
             }
         }
         expandParams(getArguments());
+        hdrMode = resolveHDRMode(hdrMode);
         initParams();
     }
 
@@ -180,13 +259,26 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
         } catch (NullPointerException e) {
             throw new RuntimeException("You should add container that extends ViewGroup for CameraPreview.");
         }
-        ImageView canvasFrame = new ImageView(activity);
-        cameraPreview = new CameraPreview(activity, camera, canvasFrame, this, this);
+        FocusOverlayView focusOverlay = new FocusOverlayView(activity);
+        cameraPreview = new CameraPreview(activity, camera, focusOverlay, this, this);
         previewContainer.addView(cameraPreview);
-        previewContainer.addView(canvasFrame);
+        if (!snapshotMode) {
+            freezeFrame = new ImageView(activity);
+            freezeFrame.setScaleType(ImageView.ScaleType.FIT_XY);
+            freezeFrame.setVisibility(View.GONE);
+            previewContainer.addView(freezeFrame);
+            cameraPreview.getAnalyzers().setRetainLastFrame(true);
+        }
+        previewContainer.addView(focusOverlay);
         cameraPreview.setFocusMode(focusMode);
+        if (documentMode) {
+            documentAnalyzer = new DocumentAnalyzer(documentCallback);
+            cameraPreview.getAnalyzers().add(documentAnalyzer);
+        }
+        updateAnalysisSize();
 
         progressBar = (ProgressBar) view.findViewById(R.id.progress);
+        thumbnail = (ImageView) view.findViewById(R.id.capture_thumbnail);
 
         mCapture = view.findViewById(R.id.capture);
         if (mCapture != null) {
@@ -284,6 +376,10 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
             }
         }
         cameraId = result;
+        if (result >= 0) {
+            cameraInfo = new Camera.CameraInfo();
+            Camera.getCameraInfo(result, cameraInfo);
+        }
         return result;
     }
 
@@ -341,14 +437,75 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
         this.paramsChangedListener = paramsChangedListener;
     }
 
+    private Camera.ShutterCallback shutterCallback = new Camera.ShutterCallback() {
+
+        @Override
+        public void onShutter() {
+            showFreezeFrame();
+        }
+
+    };
+
+    /**
+     * Holds the last preview frame over the preview and in the thumbnail until the photo is saved. Later frames of
+     * a burst or bracket keep the first one.
+     */
+    private void showFreezeFrame() {
+        if (freezeFrame == null || freezeFrame.getVisibility() == View.VISIBLE) {
+            return;
+        }
+        Bitmap bitmap = cameraPreview.getFreezeFrame(cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT);
+        if (bitmap == null) {
+            return;
+        }
+        freezeFrame.setImageBitmap(bitmap);
+        freezeFrame.setVisibility(View.VISIBLE);
+        if (thumbnail != null) {
+            thumbnail.setImageBitmap(bitmap);
+            thumbnail.setVisibility(View.VISIBLE);
+        }
+    }
+
+    private void hideFreezeFrame() {
+        if (freezeFrame != null) {
+            freezeFrame.setVisibility(View.GONE);
+            freezeFrame.setImageDrawable(null);
+        }
+    }
+
     private Camera.PictureCallback pictureCallback = new Camera.PictureCallback() {
 
         @Override
         public void onPictureTaken(byte[] data, Camera camera) {
-            if (callback != null) {
-                callback.photoTaken(data.clone(), outputOrientation);
+            if (bracket != null) {
+                burstFrames.add(data);
+                camera.startPreview();
+                if (burstFrames.size() < bracket.length) {
+                    parameters.setExposureCompensation(bracket[burstFrames.size()]);
+                    camera.setParameters(parameters);
+                    previewContainer.postDelayed(takeBracketFrame, BRACKET_SETTLE_DELAY);
+                    return;
+                }
+                finishBracket();
+            } else if (burstSize > 1 || stackSize > 1) {
+                burstFrames.add(data);
+                camera.startPreview();
+                if (burstFrames.size() < Math.max(burstSize, stackSize)) {
+                    camera.takePicture(shutterCallback, rawPictureCallback, pictureCallback);
+                    return;
+                }
+                selectBurst();
+            } else if (documentQuad != null) {
+                camera.startPreview();
+                if (callback != null) {
+                    new DocumentWarpTask(data, documentQuad, shotOrientation, documentDpi, callback).execute();
+                }
+            } else {
+                if (callback != null) {
+                    callback.photoTaken(data.clone(), shotOrientation);
+                }
+                camera.startPreview();
             }
-            camera.startPreview();
             cameraPreview.onPictureTaken();
         }
 
@@ -356,7 +513,132 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
 
     @Override
     public void onFocused(Camera camera) {
-        camera.takePicture(null, rawPictureCallback, pictureCallback);
+        if (steadyShot) {
+            if (steadyShotTrigger == null) {
+                steadyShotTrigger = new SteadyShotTrigger(cameraPreview.getAnalyzers());
+            }
+            steadyShotTrigger.start(steadyShotCallback);
+        } else {
+            capture();
+        }
+    }
+
+    private SteadyShotCallback steadyShotCallback = new SteadyShotCallback() {
+
+        @Override
+        public void onSteady(boolean timedOut, long waited) {
+            if (camera != null) {
+                capture();
+            }
+        }
+    };
+
+    private void capture() {
+        applyRotation();
+        burstFrames.clear();
+        documentQuad = documentAnalyzer != null ? documentAnalyzer.getQuad() : null;
+        if (hdrMode == HDRMode.SOFTWARE) {
+            startBracket();
+        } else {
+            camera.takePicture(shutterCallback, rawPictureCallback, pictureCallback);
+        }
+    }
+
+    private DocumentCallback documentCallback = new DocumentCallback() {
+
+        @Override
+        public void onDocumentChanged(float[] quad) {
+            if (cameraPreview != null) {
+                cameraPreview.drawDocumentFrame(quad);
+            }
+        }
+    };
+
+    /**
+     * Takes normal, dark and bright frames with exposure and white balance locked at the normal one.
+     */
+    private void startBracket() {
+        int ev = Math.max(1, Math.round(BRACKET_EV / parameters.getExposureCompensationStep()));
+        bracket = new int[] {0, Math.max(-ev, parameters.getMinExposureCompensation()),
+                Math.min(ev, parameters.getMaxExposureCompensation())};
+        setBracketLocks(true);
+        parameters.setExposureCompensation(bracket[0]);
+        camera.setParameters(parameters);
+        camera.takePicture(shutterCallback, rawPictureCallback, pictureCallback);
+    }
+
+    private Runnable takeBracketFrame = new Runnable() {
+
+        @Override
+        public void run() {
+            if (camera != null && bracket != null) {
+                camera.takePicture(shutterCallback, rawPictureCallback, pictureCallback);
+            }
+        }
+    };
+
+    private void finishBracket() {
+        bracket = null;
+        setBracketLocks(false);
+        parameters.setExposureCompensation(0);
+        camera.setParameters(parameters);
+        List<byte[]> frames = burstFrames;
+        burstFrames = new ArrayList<>();
+        if (callback != null) {
+            new HdrMergeTask(frames, shotOrientation, callback).execute();
+        }
+    }
+
+    private void setBracketLocks(boolean lock) {
+        if (parameters.isAutoExposureLockSupported()) {
+            parameters.setAutoExposureLock(lock);
+        }
+        if (parameters.isAutoWhiteBalanceLockSupported()) {
+            parameters.setAutoWhiteBalanceLock(lock);
+        }
+    }
+
+    /**
+     * Stacks burst frames into one picture, or scores them in parallel and passes only the best
+     * {@link #burstKeep} of them to the callback.
+     */
+    private void selectBurst() {
+        List<byte[]> frames = burstFrames;
+        burstFrames = new ArrayList<>();
+        if (callback == null) {
+            return;
+        }
+        if (stackSize > 1) {
+            new StackingTask(frames, shotOrientation, callback).execute();
+        } else {
+            new BurstSelectionTask(frames, burstKeep, shotOrientation, callback).execute();
+        }
+    }
+
+    /**
+     * Each shot takes a burst of {@code size} pictures of which only the best {@code keep} are saved.
+     */
+    public void setBurst(int size, int keep) {
+        burstSize = Math.max(1, size);
+        burstKeep = Math.max(1, Math.min(keep, burstSize));
+    }
+
+    /**
+     * For low light, each shot takes {@code size} pictures that are aligned and averaged into one to reduce noise.
+     * Stacking takes precedence over burst selection.
+     */
+    public void setStackSize(int size) {
+        stackSize = Math.max(1, size);
+    }
+
+    /**
+     * In steady shot mode the shutter fires at the first steady, sharp moment after focusing.
+     */
+    public void setSteadyShot(boolean steadyShot) {
+        this.steadyShot = steadyShot;
+        if (!steadyShot && steadyShotTrigger != null) {
+            steadyShotTrigger.cancel();
+        }
     }
 
     private Camera.PictureCallback rawPictureCallback = new Camera.PictureCallback() {
@@ -373,6 +655,25 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
     @Override
     public void onPause() {
         super.onPause();
+        if (steadyShotTrigger != null) {
+            steadyShotTrigger.cancel();
+            steadyShotTrigger = null;
+        }
+        if (cameraPreview != null) {
+            if (CameraConst.DEBUG) {
+                Timber.d("Frame analyzers:\n" + cameraPreview.getAnalyzers().getReport());
+            }
+            cameraPreview.getAnalyzers().release();
+        }
+        burstFrames.clear();
+        hideFreezeFrame();
+        if (bracket != null) {
+            previewContainer.removeCallbacks(takeBracketFrame);
+            bracket = null;
+            setBracketLocks(false);
+            parameters.setExposureCompensation(0);
+            camera.setParameters(parameters);
+        }
         if (orientationListener != null) {
             orientationListener.disable();
             orientationListener = null;
@@ -417,6 +718,12 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
             id = params.getInt(HDR_MODE);
         }
         hdrMode = HDRMode.getHDRModeById(id);
+        steadyShot = params.getBoolean(STEADY_SHOT, false);
+        setBurst(params.getInt(BURST_SIZE, 1), params.getInt(BURST_KEEP, 1));
+        setStackSize(params.getInt(STACK_SIZE, 1));
+        documentMode = params.getBoolean(DOCUMENT_MODE, false);
+        documentDpi = params.getInt(DOCUMENT_DPI, DEFAULT_DOCUMENT_DPI);
+        snapshotMode = params.getBoolean(SNAPSHOT_MODE, false);
     }
 
     private Bundle packSettings() {
@@ -425,14 +732,34 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
         params.putInt(QUALITY, quality.getId());
         params.putInt(RATIO, ratio.getId());
         params.putInt(FOCUS_MODE, focusMode.getId());
+        params.putIntArray(FOCUS_MODES, getSupportedFocusModeIds());
         params.putInt(HDR_MODE, hdrMode.getId());
+        params.putBoolean(SOFTWARE_HDR, !supportedHDR && supportedSoftwareHDR);
         return params;
     }
 
+    private int[] getSupportedFocusModeIds() {
+        List<FocusMode> modes = new ArrayList<>();
+        for (FocusMode mode : FocusMode.values()) {
+            if (!mode.isContinuous() || cameraPreview.isFocusModeSupported(mode)) {
+                modes.add(mode);
+            }
+        }
+        int[] ids = new int[modes.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = modes.get(i).getId();
+        }
+        return ids;
+    }
+
     private void initParams() {
         setFlashMode(parameters, flashMode);
 
         setPreviewSize(parameters, ratio);
+        if (previewFpsRange != null) {
+            parameters.setPreviewFpsRange(previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                    previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+        }
         setHDRMode(parameters, hdrMode);
         setPictureSize(parameters, quality, ratio);
 
@@ -463,7 +790,7 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
 
     @Override
     public void onHDRChanged(int id) {
-        hdrMode = HDRMode.getHDRModeById(id);
+        hdrMode = resolveHDRMode(HDRMode.getHDRModeById(id));
         setHDRMode(parameters, hdrMode);
         camera.setParameters(parameters);
         if (paramsChangedListener != null) {
@@ -503,8 +830,110 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
         setZoom(zoomIndex);
     }
 
+    @Override
+    public int getZoomRatio() {
+        return zoomRatios[smoothZooming ? targetZoomIndex : zoomIndex];
+    }
+
+    @Override
+    public void setZoomRatio(int ratio) {
+        int index = findZoomIndex(ratio);
+        if (index == targetZoomIndex) {
+            return;
+        }
+        targetZoomIndex = index;
+        long delay = lastZoomTime + zoomFrameInterval - System.currentTimeMillis();
+        cameraPreview.removeCallbacks(applyZoom);
+        if (delay > 0) {
+            cameraPreview.postDelayed(applyZoom, delay);
+        } else {
+            applyZoom.run();
+        }
+    }
+
+    private void initZoom() {
+        if (parameters.isZoomSupported()) {
+            List<Integer> ratios = parameters.getZoomRatios();
+            zoomRatios = new int[ratios.size()];
+            for (int i = 0; i < zoomRatios.length; i++) {
+                zoomRatios[i] = ratios.get(i);
+            }
+            maxZoomIndex = Math.min(parameters.getMaxZoom(), zoomRatios.length - 1);
+        } else {
+            zoomRatios = new int[] {100};
+            maxZoomIndex = 0;
+        }
+        zoomIndex = targetZoomIndex = minZoomIndex = 0;
+        smoothZoomSupported = parameters.isSmoothZoomSupported();
+        if (smoothZoomSupported) {
+            camera.setZoomChangeListener(zoomChangeListener);
+        }
+        float refreshRate = activity.getWindowManager().getDefaultDisplay().getRefreshRate();
+        zoomFrameInterval = refreshRate > 0 ? (long) (1000 / refreshRate) : 16;
+    }
+
+    /**
+     * @return index of the zoom ratio closest to the ratio, ratios are sorted ascending
+     */
+    private int findZoomIndex(int ratio) {
+        int low = minZoomIndex;
+        int high = maxZoomIndex;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (zoomRatios[middle] < ratio) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low > minZoomIndex && ratio - zoomRatios[low - 1] < zoomRatios[low] - ratio) {
+            return low - 1;
+        }
+        return low;
+    }
+
+    private Runnable applyZoom = new Runnable() {
+
+        @Override
+        public void run() {
+            if (camera == null) {
+                return;
+            }
+            lastZoomTime = System.currentTimeMillis();
+            if (!smoothZoomSupported) {
+                setZoom(zoomIndex = targetZoomIndex);
+            } else if (!smoothZooming && targetZoomIndex != zoomIndex) {
+                smoothZooming = true;
+                camera.startSmoothZoom(targetZoomIndex);
+            }
+        }
+    };
+
+    private Camera.OnZoomChangeListener zoomChangeListener = new Camera.OnZoomChangeListener() {
+
+        @Override
+        public void onZoomChange(int zoomValue, boolean stopped, Camera camera) {
+            if (zoomValue != zoomIndex) {
+                zoomIndex = zoomValue;
+                setZoomRatioText(zoomIndex);
+            }
+            if (stopped) {
+                smoothZooming = false;
+                // keep cached parameters in sync, they are set again on other changes
+                parameters.setZoom(zoomIndex);
+                if (targetZoomIndex != zoomIndex) {
+                    applyZoom.run();
+                }
+            }
+        }
+    };
+
     @Override
     public void takePhoto() {
+        if (snapshotMode) {
+            takeSnapshot();
+            return;
+        }
         mCapture.setEnabled(false);
         mCapture.setVisibility(View.INVISIBLE);
         if (progressBar != null) {
@@ -513,7 +942,38 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
         cameraPreview.takePicture();
     }
 
+    /**
+     * Saves the next preview frame at preview resolution without stopping the preview.
+     */
+    public void takeSnapshot() {
+        takeSnapshot(null);
+    }
+
+    /**
+     * @param crop area to keep in pixels of the upright preview frame, or null for the whole frame
+     */
+    public void takeSnapshot(final Rect crop) {
+        if (callback == null) {
+            return;
+        }
+        final int orientation = outputOrientation;
+        cameraPreview.getAnalyzers().requestFrame(new PreviewFrameCallback() {
+
+            @Override
+            public void onPreviewFrame(byte[] data, int width, int height, int format) {
+                new SnapshotTask(data, width, height, format, orientation, crop, callback)
+                        .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            }
+
+        });
+    }
+
     private void setZoom(int index) {
+        if (smoothZooming) {
+            camera.stopSmoothZoom();
+            smoothZooming = false;
+        }
+        targetZoomIndex = index;
         parameters.setZoom(index);
         camera.setParameters(parameters);
         setZoomRatioText(index);
@@ -521,7 +981,7 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
 
     private void setZoomRatioText(int index) {
         if (mZoomRatioTextView != null) {
-            float value = zoomRatios.get(index) / 100.0f;
+            float value = zoomRatios[index] / 100.0f;
             mZoomRatioTextView.setText(getString(R.string.lbl_zoom_ratio_value, value));
         }
     }
@@ -543,15 +1003,35 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
         camera.setParameters(parameters);
     }
 
+    /**
+     * Falls back to the HDR the camera has: scene mode if supported, otherwise software bracketing.
+     */
+    private HDRMode resolveHDRMode(HDRMode hdrMode) {
+        if (!supportedHDR && !supportedSoftwareHDR) {
+            return HDRMode.NONE;
+        }
+        if (hdrMode == HDRMode.NONE) {
+            return HDRMode.OFF;
+        }
+        if (hdrMode == HDRMode.ON && !supportedHDR) {
+            return HDRMode.SOFTWARE;
+        }
+        if (hdrMode == HDRMode.SOFTWARE && !supportedSoftwareHDR) {
+            return HDRMode.ON;
+        }
+        return hdrMode;
+    }
+
     private void setHDRMode(Camera.Parameters parameters, HDRMode hdrMode) {
-        if (supportedHDR && hdrMode == HDRMode.NONE) {
-            hdrMode = HDRMode.OFF;
+        if (!supportedHDR) {
+            return;
         }
         switch (hdrMode) {
             case ON:
                 parameters.setSceneMode(Camera.Parameters.SCENE_MODE_HDR);
                 break;
             case OFF:
+            case SOFTWARE:
                 parameters.setSceneMode(Camera.Parameters.SCENE_MODE_AUTO);
                 break;
         }
@@ -594,7 +1074,9 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
 
     private void setPreviewSize(Camera.Parameters parameters, Ratio ratio) {
         Camera.Size size = previewSizes.get(ratio);
-        parameters.setPreviewSize(size.width, size.height);
+        if (size != null) {
+            parameters.setPreviewSize(size.width, size.height);
+        }
     }
 
     /**
@@ -603,72 +1085,70 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
      * @param ratio  Required ratio
      */
     private void setPreviewContainerSize(int width, int height, Ratio ratio) {
-        height = (width / ratio.h) * ratio.w;
+        height = width * ratio.w / ratio.h;
         previewContainer.setLayoutParams(new RelativeLayout.LayoutParams(width, height));
     }
 
-    private Map<Ratio, Map<Quality, Camera.Size>> buildPictureSizesRatioMap(List<Camera.Size> sizes) {
+    /**
+     * Picks picture size for every ratio and quality by quality target pixels, heap and storage budgets.
+     */
+    private Map<Ratio, Map<Quality, Camera.Size>> buildPictureSizesRatioMap(List<Camera.Size> sizes, String path) {
         Map<Ratio, Map<Quality, Camera.Size>> map = new HashMap<>();
+        PictureSizeSelector selector = new PictureSizeSelector(PictureSizeSelector.getHeapBudget(),
+                PictureSizeSelector.getStorageBudget(path), getArguments().getBoolean(STREAMING_SAVE, false));
 
-        Map<Ratio, List<Camera.Size>> ratioListMap = new HashMap<>();
-        for (Camera.Size size : sizes) {
-            Ratio ratio = Ratio.pickRatio(size.width, size.height);
-            if (ratio != null) {
-                List<Camera.Size> sizeList = ratioListMap.get(ratio);
-                if (sizeList == null) {
-                    sizeList = new ArrayList<>();
-                    ratioListMap.put(ratio, sizeList);
-                }
-                sizeList.add(size);
-            }
-        }
-        for (Ratio r : ratioListMap.keySet()) {
-            List<Camera.Size> list = ratioListMap.get(r);
-            ratioListMap.put(r, sortSizes(list));
+        for (Ratio r : Ratio.values()) {
             Map<Quality, Camera.Size> sizeMap = new HashMap<>();
-            int i = 0;
             for (Quality q : Quality.values()) {
-                Camera.Size size = null;
-                if (i < list.size()) {
-                    size = list.get(i++);
-                }
-                sizeMap.put(q, size);
+                sizeMap.put(q, selector.select(sizes, r, q));
             }
             map.put(r, sizeMap);
         }
+        if (CameraConst.DEBUG) {
+            Timber.d("Picture size selection:\n" + selector.explain());
+        }
 
         return map;
     }
 
-    private List<Camera.Size> sortSizes(List<Camera.Size> sizes) {
-        int count = sizes.size();
-
-        while (count > 2) {
-            for (int i = 0; i < count - 1; i++) {
-                Camera.Size current = sizes.get(i);
-                Camera.Size next = sizes.get(i + 1);
-
-                if (current.width < next.width || current.height < next.height) {
-                    sizes.set(i, next);
-                    sizes.set(i + 1, current);
-                }
-            }
-            count--;
+    /**
+     * Picks preview sizes again once frame analyzers are registered, so they get enough pixels.
+     */
+    private void updateAnalysisSize() {
+        int analysisSize = cameraPreview.getAnalyzers().getMaxTargetSize();
+        if (steadyShot) {
+            // the trigger registers its analyzer only while it watches
+            analysisSize = Math.max(analysisSize, SteadyShotDetector.ANALYSIS_SIZE);
         }
-
-        return sizes;
+        if (analysisSize == 0) {
+            return;
+        }
+        previewSizes = selectPreviewSizes(parameters, analysisSize);
+        setPreviewSize(parameters, ratio);
+        camera.setParameters(parameters);
     }
 
-    private Map<Ratio, Camera.Size> buildPreviewSizesRatioMap(List<Camera.Size> sizes) {
+    /**
+     * Picks preview size for every ratio, using the container the preview is shown in for that ratio.
+     *
+     * @param analysisSize longest side frame analyzers need, 0 if there are none
+     */
+    private Map<Ratio, Camera.Size> selectPreviewSizes(Camera.Parameters parameters, int analysisSize) {
         Map<Ratio, Camera.Size> map = new HashMap<>();
-
-        for (Camera.Size size : sizes) {
-            Ratio ratio = Ratio.pickRatio(size.width, size.height);
-            if (ratio != null) {
-                Camera.Size oldSize = map.get(ratio);
-                if (oldSize == null || (oldSize.width < size.width || oldSize.height < size.height)) {
-                    map.put(ratio, size);
-                }
+        List<Camera.Size> sizes = parameters.getSupportedPreviewSizes();
+
+        for (Ratio r : Ratio.values()) {
+            PreviewSizeSelector selector = new PreviewSizeSelector(mScreenWidth, mScreenWidth * r.w / r.h);
+            selector.setAnalysisSize(analysisSize, analysisSize * r.h / r.w);
+            Camera.Size size = selector.select(sizes, r);
+            if (size != null) {
+                map.put(r, size);
+            }
+            if (previewFpsRange == null) {
+                previewFpsRange = selector.selectFpsRange(parameters.getSupportedPreviewFpsRange());
+            }
+            if (CameraConst.DEBUG) {
+                Timber.d("Preview size selection:\n" + selector.explain());
             }
         }
 
@@ -677,6 +1157,7 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
 
     @Override
     public void photoSaved(String path, String name) {
+        hideFreezeFrame();
         mCapture.setEnabled(true);
         mCapture.setVisibility(View.VISIBLE);
         if (progressBar != null) {
@@ -690,35 +1171,44 @@ public class CameraFragment extends com.yalantis.cameramodule.fragment.BaseFragm
             @Override
             public void onOrientationChanged(int orientation) {
                 if (camera != null && orientation != ORIENTATION_UNKNOWN) {
-                    int newOutputOrientation = getCameraPictureRotation(orientation);
-
-                    if (newOutputOrientation != outputOrientation) {
-                        outputOrientation = newOutputOrientation;
-
-                        Camera.Parameters params = camera.getParameters();
-                        params.setRotation(outputOrientation);
-                        try {
-                            camera.setParameters(params);
-                        } catch (Exception e) {
-                            Timber.e(e, "Exception updating camera parameters in orientation change");
-                        }
+                    int distance = Math.abs(orientation - deviceOrientation);
+                    distance = Math.min(distance, 360 - distance);
+                    if (deviceOrientation == ORIENTATION_UNKNOWN || distance >= 45 + ORIENTATION_HYSTERESIS) {
+                        deviceOrientation = (orientation + 45) / 90 * 90 % 360;
+                        outputOrientation = getCameraPictureRotation(deviceOrientation);
                     }
                 }
             }
         };
     }
 
+    /**
+     * Commits picture rotation once, right before the shot, and only if it changed since the last shot.
+     */
+    private void applyRotation() {
+        shotOrientation = outputOrientation;
+        if (appliedRotation == outputOrientation) {
+            return;
+        }
+        parameters.setRotation(outputOrientation);
+        try {
+            camera.setParameters(parameters);
+            appliedRotation = outputOrientation;
+        } catch (Exception e) {
+            Timber.e(e, "Exception updating camera rotation before capture");
+        }
+    }
+
+    /**
+     * @param orientation device orientation rounded to 90 degrees
+     */
     private int getCameraPictureRotation(int orientation) {
-        Camera.CameraInfo info = new Camera.CameraInfo();
-        Camera.getCameraInfo(cameraId, info);
         int rotation;
 
-        orientation = (orientation + 45) / 90 * 90;
-
-        if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-            rotation = (info.orientation - orientation + 360) % 360;
+        if (cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+            rotation = (cameraInfo.orientation - orientation + 360) % 360;
         } else { // back-facing camera
-            rotation = (info.orientation + orientation) % 360;
+            rotation = (cameraInfo.orientation + orientation) % 360;
         }
 
         return (rotation);
@@ -39,6 +39,7 @@ import com.yalantis.cameramodule.model.HDRMode;
 import com.yalantis.cameramodule.model.Quality;
 import com.yalantis.cameramodule.model.Ratio;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -52,6 +53,7 @@ public class CameraSettingsDialogFragment extends BaseDialogFragment {
     private Ratio ratio;
     private FocusMode focusMode;
     private HDRMode hdrMode;
+    private boolean softwareHDR;
     private List<Ratio> ratios = Arrays.asList(Ratio.values());
     private List<Quality> qualities = Arrays.asList(Quality.values());
     private List<FocusMode> focusModes = Arrays.asList(FocusMode.values());
@@ -93,6 +95,14 @@ public class CameraSettingsDialogFragment extends BaseDialogFragment {
             id = params.getInt(CameraFragment.HDR_MODE);
         }
         hdrMode = HDRMode.getHDRModeById(id);
+        softwareHDR = params.getBoolean(CameraFragment.SOFTWARE_HDR, false);
+        int[] focusModeIds = params.getIntArray(CameraFragment.FOCUS_MODES);
+        if (focusModeIds != null) {
+            focusModes = new ArrayList<>();
+            for (int focusModeId : focusModeIds) {
+                focusModes.add(FocusMode.getFocusModeById(focusModeId));
+            }
+        }
     }
 
     @Override
@@ -139,7 +149,7 @@ public class CameraSettingsDialogFragment extends BaseDialogFragment {
 
         Spinner focusSwitcher = (Spinner) view.findViewById(R.id.focus_modes);
         focusSwitcher.setAdapter(new ObjectToStringAdapter<>(activity, focusModes));
-        focusSwitcher.setSelection(focusModes.indexOf(focusMode));
+        focusSwitcher.setSelection(Math.max(0, focusModes.indexOf(focusMode)));
         focusSwitcher.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
 
             @Override
@@ -160,12 +170,13 @@ public class CameraSettingsDialogFragment extends BaseDialogFragment {
         } else {
             view.findViewById(R.id.relativeHdr).setVisibility(View.VISIBLE);
             Switch hdrSwitch = (Switch) view.findViewById(R.id.switchHDR);
-            hdrSwitch.setChecked(hdrMode == HDRMode.ON);
+            hdrSwitch.setChecked(hdrMode == HDRMode.ON || hdrMode == HDRMode.SOFTWARE);
             hdrSwitch.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
 
                 @Override
                 public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                    onHDRChanged(isChecked ? HDRMode.ON.getId() : HDRMode.OFF.getId());
+                    HDRMode on = softwareHDR ? HDRMode.SOFTWARE : HDRMode.ON;
+                    onHDRChanged(isChecked ? on.getId() : HDRMode.OFF.getId());
                 }
             });
         }
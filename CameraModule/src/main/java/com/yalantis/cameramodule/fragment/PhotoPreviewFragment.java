@@ -64,7 +64,9 @@ public class PhotoPreviewFragment extends BaseFragment {
 
     public void setBitmap(Bitmap bitmap) {
         this.bitmap = bitmap;
-        imageView.setImageBitmap(bitmap);
+        if (imageView != null) {
+            imageView.setImageBitmap(bitmap);
+        }
     }
 
 }
@@ -0,0 +1,50 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.interfaces;
+
+import com.yalantis.cameramodule.util.LumaPyramid;
+
+public interface FrameAnalyzer {
+
+    public String getName();
+
+    /**
+     * @return frames per second the analyzer wants, 0 for every frame
+     */
+    public int getTargetRate();
+
+    /**
+     * @return longest side of the luma image the analyzer needs
+     */
+    public int getTargetSize();
+
+    /**
+     * Called on a worker thread, never for two frames at once. The pyramid is shared with other analyzers and
+     * must not be modified.
+     *
+     * @param level smallest pyramid level that is at least {@link #getTargetSize()} long, or the base level
+     */
+    public void analyze(LumaPyramid pyramid, int level, long timestamp);
+
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.manager;
+
+import timber.log.Timber;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import com.yalantis.cameramodule.ManagerInitializer;
+import com.yalantis.cameramodule.interfaces.Initializer;
+
+/**
+ * Process-local registry that passes a freshly captured photo from the saving task to the preview screen
+ * without a round trip through the disk. Entries are keyed by capture id, taken at most once and evicted
+ * by size, so a consumer must always be ready to fall back to the saved file.
+ */
+public enum HandoffManager implements Initializer {
+    i;
+
+    private static final int MEMORY_FRACTION = 8;
+
+    private LruCache<String, Object> entries;
+
+    @Override
+    public void init(Context context) {
+        int maxBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / MEMORY_FRACTION);
+        entries = new LruCache<String, Object>(maxBytes) {
+
+            @Override
+            protected int sizeOf(String key, Object value) {
+                return HandoffManager.sizeOf(value);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Object oldValue, Object newValue) {
+                if (evicted || newValue != null) {
+                    Timber.d("handoff %1s dropped", key);
+                    if (oldValue instanceof Bitmap) {
+                        ((Bitmap) oldValue).recycle();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * @param bitmap screen sized bitmap, owned by the registry until it is taken
+     */
+    public void put(String captureId, Bitmap bitmap) {
+        ManagerInitializer.i.require(this);
+        entries.put(captureId, bitmap);
+    }
+
+    public void put(String captureId, byte[] jpeg) {
+        ManagerInitializer.i.require(this);
+        entries.put(captureId, jpeg);
+    }
+
+    /**
+     * @return bitmap handed off under the id or null if there is none, or if there are only JPEG bytes
+     */
+    public Bitmap takeBitmap(String captureId) {
+        ManagerInitializer.i.require(this);
+        if (captureId == null || !(entries.get(captureId) instanceof Bitmap)) {
+            return null;
+        }
+        Bitmap bitmap = (Bitmap) entries.remove(captureId);
+        return bitmap != null && !bitmap.isRecycled() ? bitmap : null;
+    }
+
+    public byte[] takeJpeg(String captureId) {
+        ManagerInitializer.i.require(this);
+        if (captureId == null || !(entries.get(captureId) instanceof byte[])) {
+            return null;
+        }
+        return (byte[]) entries.remove(captureId);
+    }
+
+    public boolean contains(String captureId) {
+        ManagerInitializer.i.require(this);
+        return captureId != null && entries.get(captureId) != null;
+    }
+
+    @Override
+    public void clear() {
+        entries.evictAll();
+    }
+
+    private static int sizeOf(Object value) {
+        if (value instanceof Bitmap) {
+            return ((Bitmap) value).getByteCount();
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        return 0;
+    }
+
+}
@@ -27,22 +27,31 @@ import java.io.File;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
 import android.graphics.RectF;
+import android.os.AsyncTask;
 import android.text.TextUtils;
+import android.util.DisplayMetrics;
 
 import com.squareup.picasso.Picasso;
 import com.squareup.picasso.PicassoTools;
 import com.squareup.picasso.Target;
+import com.yalantis.cameramodule.ManagerInitializer;
 import com.yalantis.cameramodule.interfaces.Initializer;
 import com.yalantis.cameramodule.interfaces.PhotoSavedListener;
+import com.yalantis.cameramodule.interfaces.ProgressiveTarget;
 import com.yalantis.cameramodule.interfaces.StorageCallback;
+import com.yalantis.cameramodule.model.OutputPolicy;
+import com.yalantis.cameramodule.model.Rendition;
 import com.yalantis.cameramodule.util.CropPhotoTask;
+import com.yalantis.cameramodule.util.DecodeHandoffTask;
 import com.yalantis.cameramodule.util.ManagedTarget;
+import com.yalantis.cameramodule.util.PlaceholderTask;
 import com.yalantis.cameramodule.util.RotatePhotoTask;
 import com.yalantis.cameramodule.util.ScaleTransformation;
 
@@ -54,6 +63,8 @@ public enum ImageManager implements Initializer, StorageCallback {
 
     private HashSet<ManagedTarget> targets;
     private Map<String, WeakReference<Bitmap>> bitmapMap;
+    private List<Rendition> renditions;
+    private OutputPolicy outputPolicy = new OutputPolicy();
 
     @Override
     public void init(Context context) {
@@ -61,9 +72,65 @@ public enum ImageManager implements Initializer, StorageCallback {
         this.picasso = Picasso.with(context);
         bitmapMap = new HashMap<>();
         targets = new HashSet<>();
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        renditions = Rendition.defaults(Math.max(metrics.widthPixels, metrics.heightPixels));
+    }
+
+    /**
+     * @return renditions that are written next to every saved photo
+     */
+    public List<Rendition> getRenditions() {
+        ManagerInitializer.i.require(this);
+        return renditions;
+    }
+
+    public void setRenditions(List<Rendition> renditions) {
+        ManagerInitializer.i.require(this);
+        this.renditions = renditions;
+    }
+
+    /**
+     * @return format photos are saved in and quality of each format, also used when edited photos are rewritten
+     */
+    public OutputPolicy getOutputPolicy() {
+        ManagerInitializer.i.require(this);
+        return outputPolicy;
+    }
+
+    public void setOutputPolicy(OutputPolicy outputPolicy) {
+        ManagerInitializer.i.require(this);
+        this.outputPolicy = outputPolicy;
+    }
+
+    /**
+     * Loads a photo that was just captured, preferring what the capture handed off to {@link HandoffManager}
+     * and falling back to the file.
+     */
+    public void loadPhoto(final String path, String captureId, final int width, final int height, final Target target) {
+        ManagerInitializer.i.require(this);
+        Bitmap bitmap = HandoffManager.i.takeBitmap(captureId);
+        if (bitmap != null) {
+            setBitmap(path, bitmap);
+            target.onBitmapLoaded(bitmap, Picasso.LoadedFrom.MEMORY);
+            return;
+        }
+        byte[] jpeg = HandoffManager.i.takeJpeg(captureId);
+        if (jpeg != null) {
+            ManagedTarget managedTarget = new ManagedTarget(target, path, this);
+            new DecodeHandoffTask(jpeg, width, height, managedTarget, new Runnable() {
+
+                @Override
+                public void run() {
+                    loadPhoto(path, width, height, target);
+                }
+            }).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            return;
+        }
+        loadPhoto(path, width, height, target);
     }
 
     public void loadPhoto(String path, int width, int height, Target target) {
+        ManagerInitializer.i.require(this);
         File photo = !TextUtils.isEmpty(path) ? new File(path) : null;
         if (path == null) {
             target.onBitmapFailed(null);
@@ -73,8 +140,12 @@ public enum ImageManager implements Initializer, StorageCallback {
             target.onBitmapLoaded(bitmap, Picasso.LoadedFrom.MEMORY);
         } else {
             ManagedTarget managedTarget = new ManagedTarget(target, path, this);
+            if (photo != null && target instanceof ProgressiveTarget) {
+                new PlaceholderTask(photo, renditions, managedTarget, (ProgressiveTarget) target)
+                        .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            }
             Picasso.with(context)
-                    .load(photo)
+                    .load(pickSource(photo, Math.max(width, height)))
                     .skipMemoryCache()
                     .config(Bitmap.Config.ARGB_8888)
                     .transform(new ScaleTransformation(width, height))
@@ -82,12 +153,38 @@ public enum ImageManager implements Initializer, StorageCallback {
         }
     }
 
+    /**
+     * Picks the smallest rendition that is not smaller than requested size. Renditions are rewritten
+     * by every task that rewrites the original.
+     */
+    private File pickSource(File photo, int size) {
+        if (photo == null) {
+            return null;
+        }
+        File result = photo;
+        int resultSide = Integer.MAX_VALUE;
+        for (Rendition rendition : renditions) {
+            if (rendition.maxSide >= size && rendition.maxSide < resultSide) {
+                File file = rendition.getFile(photo);
+                if (file.exists()) {
+                    result = file;
+                    resultSide = rendition.maxSide;
+                }
+            }
+        }
+        return result;
+    }
+
     public void cropBitmap(String path, int width, int height, Bitmap croppedBitmap, RectF rect, PhotoSavedListener callback) {
+        ManagerInitializer.i.require(this);
         setBitmap(path, croppedBitmap);
-        new CropPhotoTask(path, width, height, rect, callback).execute();
+        CropPhotoTask task = new CropPhotoTask(path, width, height, rect, renditions, callback);
+        task.setOutputPolicy(outputPolicy);
+        task.execute();
     }
 
     public Bitmap rotatePhoto(String path, float angle) {
+        ManagerInitializer.i.require(this);
         Bitmap bitmap = getBitmap(path);
         if (bitmap != null && !bitmap.isRecycled()) {
             Matrix matrix = new Matrix();
@@ -95,7 +192,9 @@ public enum ImageManager implements Initializer, StorageCallback {
             bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
         }
         setBitmap(path, bitmap);
-        new RotatePhotoTask(path, angle, null).execute();
+        RotatePhotoTask task = new RotatePhotoTask(path, angle, renditions, null);
+        task.setOutputPolicy(outputPolicy);
+        task.execute();
 
         return bitmap;
     }
@@ -122,17 +221,20 @@ public enum ImageManager implements Initializer, StorageCallback {
 
     @Override
     public void setBitmap(String path, Bitmap bitmap) {
+        ManagerInitializer.i.require(this);
         bitmapMap.put(path, new WeakReference<>(bitmap));
     }
 
     @Override
     public void addTarget(ManagedTarget target) {
+        ManagerInitializer.i.require(this);
         removeTarget(target);
         targets.add(target);
     }
 
     @Override
     public void removeTarget(ManagedTarget target) {
+        ManagerInitializer.i.require(this);
         if (targets.contains(target)) {
             targets.remove(target);
         }
@@ -29,6 +29,7 @@ import java.util.Set;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import com.yalantis.cameramodule.ManagerInitializer;
 import com.yalantis.cameramodule.interfaces.Initializer;
 import com.yalantis.cameramodule.model.CachedValue;
 
@@ -36,6 +37,7 @@ public enum SharedPrefManager implements Initializer {
     i;
 
     private static final String NAME = "sharedPrefs";
+    private static final long WRITE_DELAY = 300;
 
     public static final String OPEN_PHOTO_PREVIEW = "open_photo_preview";
     public static final String CAMERA_RATIO = "camera_ratio";
@@ -69,66 +71,92 @@ public enum SharedPrefManager implements Initializer {
         cachedValues.add(cameraFlashMode = new CachedValue<>(CAMERA_FLASH_MODE, 0, Integer.class));
         cachedValues.add(cameraFocusMode = new CachedValue<>(CAMERA_FOCUS_MODE, 0, Integer.class));
         cachedValues.add(useFrontCamera = new CachedValue<>(USE_FRONT_CAMERA, false, Boolean.class));
+        for (CachedValue value : cachedValues) {
+            value.setWriteBehind(WRITE_DELAY);
+        }
     }
 
     public void setHDRMode(int isHDR) {
+        ManagerInitializer.i.require(this);
         this.isCameraHDRMode.setValue(isHDR);
     }
 
     public int isHDR() {
+        ManagerInitializer.i.require(this);
         return isCameraHDRMode.getValue();
     }
 
     public boolean isOpenPhotoPreview() {
+        ManagerInitializer.i.require(this);
         return openPhotoPreview.getValue();
     }
 
     public void setOpenPhotoPreview(boolean enabled) {
+        ManagerInitializer.i.require(this);
         this.openPhotoPreview.setValue(enabled);
     }
 
     public int getCameraRatio() {
+        ManagerInitializer.i.require(this);
         return cameraRatio.getValue();
     }
 
     public void setCameraRatio(int cameraRatio) {
+        ManagerInitializer.i.require(this);
         this.cameraRatio.setValue(cameraRatio);
     }
 
     public int getCameraQuality() {
+        ManagerInitializer.i.require(this);
         return cameraQuality.getValue();
     }
 
     public void setCameraQuality(int cameraQuality) {
+        ManagerInitializer.i.require(this);
         this.cameraQuality.setValue(cameraQuality);
     }
 
     public int getCameraFlashMode() {
+        ManagerInitializer.i.require(this);
         return cameraFlashMode.getValue();
     }
 
     public void setCameraFlashMode(int cameraFlashMode) {
+        ManagerInitializer.i.require(this);
         this.cameraFlashMode.setValue(cameraFlashMode);
     }
 
     public int getCameraFocusMode() {
+        ManagerInitializer.i.require(this);
         return cameraFocusMode.getValue();
     }
 
     public void setCameraFocusMode(int cameraFocusMode) {
+        ManagerInitializer.i.require(this);
         this.cameraFocusMode.setValue(cameraFocusMode);
     }
 
     public boolean useFrontCamera() {
+        ManagerInitializer.i.require(this);
         return useFrontCamera.getValue();
     }
 
     public void setUseFrontCamera(boolean frontCamera) {
+        ManagerInitializer.i.require(this);
         this.useFrontCamera.setValue(frontCamera);
     }
 
+    /**
+     * Writes changed preferences right away instead of waiting for the debounce window.
+     */
+    public void flush() {
+        ManagerInitializer.i.require(this);
+        CachedValue.flush();
+    }
+
     @Override
     public void clear() {
+        CachedValue.discardPending(sp);
         for (CachedValue value : cachedValues) {
             value.clear();
         }
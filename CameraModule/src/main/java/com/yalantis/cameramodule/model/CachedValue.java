@@ -23,13 +23,40 @@
 
 package com.yalantis.cameramodule.model;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
 
 public class CachedValue<T> {
 
     private static SharedPreferences sharedPref;
 
+    /**
+     * Values of all files waiting for a write-behind flush
+     */
+    private static final Set<CachedValue> pending = new LinkedHashSet<>();
+    private static Handler handler;
+    private static final Runnable flushRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
     private SharedPreferences sp;
+    /**
+     * Debounce window of write-behind mode in ms, writes are synchronous if it is negative
+     */
+    private long writeDelay = -1;
 
     private T value;
     private T defValue;
@@ -56,7 +83,18 @@ public class CachedValue<T> {
 
     public void setValue(T value) {
         loaded = true;
-        write(this.value = value);
+        this.value = value;
+        if (writeDelay < 0) {
+            SharedPreferences.Editor editor = sp.edit();
+            write(editor, value);
+            editor.commit();
+            return;
+        }
+        synchronized (pending) {
+            pending.add(this);
+        }
+        handler.removeCallbacks(flushRunnable);
+        handler.postDelayed(flushRunnable, writeDelay);
     }
 
     public T getValue() {
@@ -71,9 +109,7 @@ public class CachedValue<T> {
         return name;
     }
 
-    private void write(T value) {
-        SharedPreferences.Editor editor = sp.edit();
-
+    private void write(SharedPreferences.Editor editor, T value) {
         if (value instanceof String) {
 
             editor.putString(name, (String) value);
@@ -95,8 +131,6 @@ public class CachedValue<T> {
             editor.putBoolean(name, (Boolean) value);
 
         }
-
-        editor.commit();
     }
 
     @SuppressWarnings("unchecked")
@@ -128,6 +162,9 @@ public class CachedValue<T> {
     }
 
     public void delete() {
+        synchronized (pending) {
+            pending.remove(this);
+        }
         sp.edit().remove(name).commit();
         clear();
     }
@@ -136,6 +173,77 @@ public class CachedValue<T> {
         CachedValue.sharedPref = sp;
     }
 
+    /**
+     * Enables write-behind mode for this value: changes of write-behind values are collected and written with one
+     * {@link SharedPreferences.Editor#apply()} per preferences file after no such value has changed for delay ms.
+     * Reads are served from the cache as before. Values are committed synchronously unless they opt in. Use
+     * {@link #flush()} on lifecycle boundaries.
+     *
+     * @param delay debounce window in ms, negative value restores synchronous commits
+     */
+    public void setWriteBehind(long delay) {
+        synchronized (pending) {
+            if (delay >= 0 && handler == null) {
+                handler = new Handler(Looper.getMainLooper());
+            }
+        }
+        if (delay < 0) {
+            boolean waiting;
+            synchronized (pending) {
+                waiting = pending.remove(this);
+            }
+            if (waiting) {
+                SharedPreferences.Editor editor = sp.edit();
+                write(editor, value);
+                editor.commit();
+            }
+        }
+        writeDelay = delay;
+    }
+
+    /**
+     * Writes all pending values at once.
+     */
+    @SuppressWarnings("unchecked")
+    public static void flush() {
+        List<CachedValue> values;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            values = new ArrayList<>(pending);
+            pending.clear();
+        }
+        if (handler != null) {
+            handler.removeCallbacks(flushRunnable);
+        }
+        Map<SharedPreferences, SharedPreferences.Editor> editors = new HashMap<>();
+        for (CachedValue value : values) {
+            SharedPreferences.Editor editor = editors.get(value.sp);
+            if (editor == null) {
+                editors.put(value.sp, editor = value.sp.edit());
+            }
+            value.write(editor, value.value);
+        }
+        for (SharedPreferences.Editor editor : editors.values()) {
+            editor.apply();
+        }
+    }
+
+    /**
+     * Drops pending values of the preferences file without writing them.
+     */
+    public static void discardPending(SharedPreferences sp) {
+        synchronized (pending) {
+            Iterator<CachedValue> iterator = pending.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().sp == sp) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
     public void setSharedPreferences(SharedPreferences sp) {
         this.sp = sp;
     }
@@ -23,23 +23,45 @@
 
 package com.yalantis.cameramodule.model;
 
+import android.hardware.Camera;
+
 public enum FocusMode {
 
-    AUTO(0, "Auto"), TOUCH(1, "Touch");
+    AUTO(0, "Auto", Camera.Parameters.FOCUS_MODE_AUTO),
+    TOUCH(1, "Touch", Camera.Parameters.FOCUS_MODE_AUTO),
+    CONTINUOUS_PICTURE(2, "Continuous picture", Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE),
+    CONTINUOUS_VIDEO(3, "Continuous video", Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO);
 
     private int id;
 
     private String name;
 
-    FocusMode(int id, String name) {
+    private String cameraMode;
+
+    FocusMode(int id, String name, String cameraMode) {
         this.id = id;
         this.name = name;
+        this.cameraMode = cameraMode;
     }
 
     public int getId() {
         return id;
     }
 
+    /**
+     * @return value for {@link Camera.Parameters#setFocusMode(String)}
+     */
+    public String getCameraMode() {
+        return cameraMode;
+    }
+
+    /**
+     * @return true if the lens focuses by itself, without an autofocus sweep before the shot
+     */
+    public boolean isContinuous() {
+        return this == CONTINUOUS_PICTURE || this == CONTINUOUS_VIDEO;
+    }
+
     public static FocusMode getFocusModeById(int id) {
         for (FocusMode mode : values()) {
             if (mode.id == id) {
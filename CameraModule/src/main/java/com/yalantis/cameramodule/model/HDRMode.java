@@ -25,7 +25,11 @@ package com.yalantis.cameramodule.model;
 
 public enum HDRMode {
 
-    NONE(0, "None"), ON(1, "On"), OFF(2, "Off");
+    NONE(0, "None"), ON(1, "On"), OFF(2, "Off"),
+    /**
+     * Exposure bracket merged on the device, for cameras without HDR scene mode
+     */
+    SOFTWARE(3, "Software");
 
     private int id;
     private String name;
@@ -0,0 +1,111 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.model;
+
+import java.util.Locale;
+
+import android.graphics.Bitmap;
+
+import com.yalantis.cameramodule.CameraConst;
+
+public enum OutputFormat {
+    JPEG(0, "JPEG", Bitmap.CompressFormat.JPEG, ".jpg", CameraConst.COMPRESS_QUALITY),
+    WEBP(1, "WebP", Bitmap.CompressFormat.WEBP, ".webp", 80),
+    /**
+     * WebP at quality 100, which Android 10 and newer encode lossless. Older versions make the best lossy WebP.
+     */
+    WEBP_LOSSLESS(2, "WebP lossless", Bitmap.CompressFormat.WEBP, ".webp", 100);
+
+    private int id;
+    private String name;
+    private Bitmap.CompressFormat compressFormat;
+    private String extension;
+    private int defaultQuality;
+
+    OutputFormat(int id, String name, Bitmap.CompressFormat compressFormat, String extension, int defaultQuality) {
+        this.id = id;
+        this.name = name;
+        this.compressFormat = compressFormat;
+        this.extension = extension;
+        this.defaultQuality = defaultQuality;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Bitmap.CompressFormat getCompressFormat() {
+        return compressFormat;
+    }
+
+    /**
+     * @return file name extension with the dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    public int getDefaultQuality() {
+        return defaultQuality;
+    }
+
+    /**
+     * @return true if quality can be changed, false if it is fixed by the format
+     */
+    public boolean isLossy() {
+        return this != WEBP_LOSSLESS;
+    }
+
+    /**
+     * @return true if the EXIF thumbnail and camera EXIF can be kept, that is for JPEG only
+     */
+    public boolean hasExif() {
+        return this == JPEG;
+    }
+
+    public static OutputFormat getOutputFormatById(int id) {
+        for (OutputFormat format : values()) {
+            if (format.id == id) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return format of the file by its extension, JPEG for unknown extensions
+     */
+    public static OutputFormat getOutputFormatByName(String fileName) {
+        if (fileName != null && fileName.toLowerCase(Locale.US).endsWith(WEBP.extension)) {
+            return WEBP;
+        }
+        return JPEG;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.model;
+
+/**
+ * Format photos are saved in and quality for each format. Renditions use the format of the photo unless they have
+ * their own.
+ */
+public class OutputPolicy {
+
+    private OutputFormat format;
+    private int[] qualities = new int[OutputFormat.values().length];
+
+    public OutputPolicy() {
+        this(OutputFormat.JPEG);
+    }
+
+    public OutputPolicy(OutputFormat format) {
+        this.format = format;
+        for (OutputFormat value : OutputFormat.values()) {
+            qualities[value.ordinal()] = value.getDefaultQuality();
+        }
+    }
+
+    /**
+     * @return copy of this policy with another photo format
+     */
+    public OutputPolicy withFormat(OutputFormat format) {
+        OutputPolicy policy = new OutputPolicy(format);
+        System.arraycopy(qualities, 0, policy.qualities, 0, qualities.length);
+        return policy;
+    }
+
+    public OutputFormat getFormat() {
+        return format;
+    }
+
+    public void setFormat(OutputFormat format) {
+        this.format = format;
+    }
+
+    public int getQuality(OutputFormat format) {
+        return format.isLossy() ? qualities[format.ordinal()] : format.getDefaultQuality();
+    }
+
+    public void setQuality(OutputFormat format, int quality) {
+        qualities[format.ordinal()] = quality;
+    }
+
+    /**
+     * @return format to rewrite an existing file in: the format of its extension, or the policy format if that
+     * has the same extension
+     */
+    public OutputFormat getFormatFor(String path) {
+        OutputFormat byName = OutputFormat.getOutputFormatByName(path);
+        return byName.getExtension().equals(format.getExtension()) ? format : byName;
+    }
+
+    @Override
+    public String toString() {
+        return format + "(" + getQuality(format) + ")";
+    }
+
+}
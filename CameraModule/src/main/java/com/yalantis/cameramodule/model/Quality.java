@@ -24,21 +24,31 @@
 package com.yalantis.cameramodule.model;
 
 public enum Quality {
-    HIGH(0, "High"), MEDIUM(1, "Medium"), LOW(2, "Low");
+    HIGH(0, "High", 0), MEDIUM(1, "Medium", 3000000), LOW(2, "Low", 1000000);
 
     private int id;
 
     private String name;
 
-    Quality(int id, String name) {
+    private int targetPixels;
+
+    Quality(int id, String name, int targetPixels) {
         this.id = id;
         this.name = name;
+        this.targetPixels = targetPixels;
     }
 
     public int getId() {
         return id;
     }
 
+    /**
+     * @return pixel count the picture size should be close to, zero for the biggest size that fits the budgets
+     */
+    public int getTargetPixels() {
+        return targetPixels;
+    }
+
     public static Quality getQualityById(int id) {
         for (Quality mode : values()) {
             if (mode.id == id) {
@@ -26,6 +26,11 @@ package com.yalantis.cameramodule.model;
 public enum Ratio {
     R_4x3(0, 4, 3), R_16x9(1, 16, 9);
 
+    /**
+     * Maximum relative difference between aspect ratios of a size and a ratio to treat them as equal
+     */
+    public static final float TOLERANCE = 0.02f;
+
     private int id;
 
     public int w;
@@ -51,13 +56,42 @@ public enum Ratio {
         return null;
     }
 
+    /**
+     * @return long side to short side ratio
+     */
+    public float getValue() {
+        return (float) w / h;
+    }
+
+    /**
+     * @return relative difference between aspect ratio of the size (in any orientation) and this ratio
+     */
+    public float getError(int width, int height) {
+        float aspect = (float) Math.max(width, height) / Math.min(width, height);
+        return Math.abs(aspect - getValue()) / getValue();
+    }
+
     public static Ratio pickRatio(int width, int height) {
+        return pickRatio(width, height, TOLERANCE);
+    }
+
+    /**
+     * @return closest ratio that differs from the aspect ratio of the size not more than tolerance or null
+     */
+    public static Ratio pickRatio(int width, int height, float tolerance) {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        Ratio result = null;
+        float resultError = tolerance;
         for (Ratio ratio : values()) {
-            if (width / ratio.w == height / ratio.h) {
-                return ratio;
+            float error = ratio.getError(width, height);
+            if (error <= resultError) {
+                result = ratio;
+                resultError = error;
             }
         }
-        return null;
+        return result;
     }
 
     @Override
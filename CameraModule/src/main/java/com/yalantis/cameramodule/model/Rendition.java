@@ -0,0 +1,86 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Derived, downscaled copy of a saved photo that is written next to the original.
+ */
+public class Rendition {
+
+    public static final String SCREEN = "screen";
+    public static final String THUMBNAIL = "thumb";
+
+    public static final int THUMBNAIL_SIZE = 256;
+
+    public String name;
+
+    /**
+     * Longest side of the rendition in pixels
+     */
+    public int maxSide;
+
+    /**
+     * Format of the rendition, null for the format of the photo
+     */
+    public OutputFormat format;
+
+    public Rendition(String name, int maxSide) {
+        this(name, maxSide, null);
+    }
+
+    public Rendition(String name, int maxSide, OutputFormat format) {
+        this.name = name;
+        this.maxSide = maxSide;
+        this.format = format;
+    }
+
+    public File getFile(File original) {
+        String fileName = original.getName();
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String ext = format != null ? format.getExtension() : dot > 0 ? fileName.substring(dot) : "";
+        return new File(original.getParentFile(), base + "_" + name + ext);
+    }
+
+    public OutputFormat getFormat(OutputFormat photoFormat) {
+        return format != null ? format : photoFormat;
+    }
+
+    public static List<Rendition> defaults(int screenSize) {
+        List<Rendition> renditions = new ArrayList<>();
+        renditions.add(new Rendition(SCREEN, screenSize));
+        renditions.add(new Rendition(THUMBNAIL, THUMBNAIL_SIZE));
+        return renditions;
+    }
+
+    @Override
+    public String toString() {
+        return name + "(" + maxSide + (format != null ? ", " + format : "") + ")";
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import timber.log.Timber;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+
+import com.yalantis.cameramodule.interfaces.PhotoTakenCallback;
+
+/**
+ * Scores burst JPEGs in parallel on {@link WorkerPool} from subsampled decodes and passes only the best ones to
+ * the callback, so the rest are never fully decoded or written.
+ */
+public class BurstSelectionTask extends AsyncTask<Void, Void, List<byte[]>> {
+
+    /**
+     * Longest side of the decode used for scoring
+     */
+    private static final int SCORING_SIZE = 320;
+
+    private List<byte[]> frames;
+    private int keep;
+    private int orientation;
+    private PhotoTakenCallback callback;
+
+    public BurstSelectionTask(List<byte[]> frames, int keep, int orientation, PhotoTakenCallback callback) {
+        this.frames = frames;
+        this.keep = keep;
+        this.orientation = orientation;
+        this.callback = callback;
+    }
+
+    @Override
+    protected List<byte[]> doInBackground(Void... params) {
+        long time = System.currentTimeMillis();
+        List<Callable<FrameScore>> tasks = new ArrayList<>();
+        for (int i = 0; i < frames.size(); i++) {
+            tasks.add(new ScoreTask(i, frames.get(i)));
+        }
+        List<FrameScore> scores = new ArrayList<>();
+        float maxSharpness = 0;
+        for (FrameScore score : WorkerPool.invokeAll(tasks)) {
+            if (score != null) {
+                scores.add(score);
+                maxSharpness = Math.max(maxSharpness, score.sharpness);
+            }
+        }
+        for (FrameScore score : scores) {
+            score.rate(maxSharpness);
+        }
+        Collections.sort(scores, new Comparator<FrameScore>() {
+
+            @Override
+            public int compare(FrameScore lhs, FrameScore rhs) {
+                return Float.compare(rhs.score, lhs.score);
+            }
+        });
+
+        List<byte[]> winners = new ArrayList<>();
+        for (int i = 0; i < scores.size(); i++) {
+            FrameScore score = scores.get(i);
+            Timber.d("burst %1s%2s", score, i < keep ? " (kept)" : "");
+            if (i < keep) {
+                winners.add(frames.get(score.index));
+            }
+        }
+        if (winners.isEmpty() && !frames.isEmpty()) {
+            winners.add(frames.get(0));
+        }
+        frames = null;
+        Timber.d("burst scored: %1dms", System.currentTimeMillis() - time);
+        return winners;
+    }
+
+    @Override
+    protected void onPostExecute(List<byte[]> winners) {
+        for (byte[] data : winners) {
+            callback.photoTaken(data, orientation);
+        }
+    }
+
+    private static class ScoreTask implements Callable<FrameScore> {
+
+        private int index;
+        private byte[] data;
+
+        ScoreTask(int index, byte[] data) {
+            this.index = index;
+            this.data = data;
+        }
+
+        @Override
+        public FrameScore call() {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = RenditionWriter.calculateInSampleSize(options, SCORING_SIZE);
+            Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            if (bitmap == null) {
+                Timber.e("Can't decode burst frame %1d", index);
+                return null;
+            }
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            bitmap.recycle();
+            return FrameScore.measure(index, pixels, width, height);
+        }
+
+    }
+
+}
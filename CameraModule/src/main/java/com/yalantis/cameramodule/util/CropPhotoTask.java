@@ -27,15 +27,19 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.List;
 
 import timber.log.Timber;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.os.AsyncTask;
 
-import com.yalantis.cameramodule.CameraConst;
 import com.yalantis.cameramodule.interfaces.PhotoSavedListener;
+import com.yalantis.cameramodule.model.OutputFormat;
+import com.yalantis.cameramodule.model.OutputPolicy;
+import com.yalantis.cameramodule.model.Rendition;
 
 public class CropPhotoTask extends AsyncTask<Void, Void, Void> {
 
@@ -43,18 +47,99 @@ public class CropPhotoTask extends AsyncTask<Void, Void, Void> {
     private int width;
     private int height;
     private RectF rect;
+    private List<Rendition> renditions;
     private PhotoSavedListener callback;
+    private OutputPolicy policy = new OutputPolicy();
 
-    public CropPhotoTask(String path, int width, int height, RectF rect, PhotoSavedListener callback) {
+    public CropPhotoTask(String path, int width, int height, RectF rect, List<Rendition> renditions,
+                         PhotoSavedListener callback) {
         this.path = path;
         this.rect = rect;
         this.width = width;
         this.height = height;
+        this.renditions = renditions;
         this.callback = callback;
     }
 
+    /**
+     * @param policy quality of the formats, the file is rewritten in the format of its extension
+     */
+    public void setOutputPolicy(OutputPolicy policy) {
+        this.policy = policy;
+    }
+
     @Override
     protected Void doInBackground(Void... params) {
+        File photo = new File(path);
+        OutputFormat format = policy.getFormatFor(path);
+        if (format == OutputFormat.JPEG) {
+            cropStrips(photo);
+        } else {
+            cropBitmap(photo, format);
+        }
+
+        return null;
+    }
+
+    /**
+     * Crops the JPEG strip by strip, it is never decoded at full size. Renditions are made from a subsampled decode.
+     */
+    private void cropStrips(File photo) {
+        RenditionWriter renditionWriter = new RenditionWriter(photo, policy);
+        Bitmap preview = null;
+        RegionTileSource source = null;
+        try {
+            source = new RegionTileSource(path);
+            Rect crop = getSourceRect(source.getWidth(), source.getHeight());
+            if (!renditions.isEmpty()) {
+                preview = RenditionWriter.decodeFile(path, renditions);
+                if (preview != null) {
+                    preview = cropPreview(preview, crop, source.getWidth());
+                    renditionWriter.start(preview, renditions, false);
+                }
+            }
+            new StripPipeline(source, source.getWidth(), source.getHeight()).crop(crop)
+                    .encodeJpeg(policy.getQuality(OutputFormat.JPEG), photo);
+        } catch (IOException e) {
+            Timber.e(e, "File write failure: " + e.getMessage());
+        } finally {
+            if (source != null) {
+                source.recycle();
+            }
+        }
+        renditionWriter.finish();
+        if (preview != null) {
+            preview.recycle();
+        }
+    }
+
+    /**
+     * @return crop rect scaled from the shown width x height to the picture
+     */
+    private Rect getSourceRect(int sourceWidth, int sourceHeight) {
+        float koefW = (float) width / sourceWidth;
+        float koefH = (float) height / sourceHeight;
+        int left = Math.max(0, Math.min(sourceWidth - 1, (int) (rect.left / koefW)));
+        int top = Math.max(0, Math.min(sourceHeight - 1, (int) (rect.top / koefH)));
+        int right = Math.max(left + 1, Math.min(sourceWidth, left + (int) (rect.width() / koefW)));
+        int bottom = Math.max(top + 1, Math.min(sourceHeight, top + (int) (rect.height() / koefH)));
+        return new Rect(left, top, right, bottom);
+    }
+
+    private static Bitmap cropPreview(Bitmap preview, Rect crop, int sourceWidth) {
+        float scale = (float) preview.getWidth() / sourceWidth;
+        int left = Math.min(preview.getWidth() - 1, Math.round(crop.left * scale));
+        int top = Math.min(preview.getHeight() - 1, Math.round(crop.top * scale));
+        int cropWidth = Math.max(1, Math.min(preview.getWidth() - left, Math.round(crop.width() * scale)));
+        int cropHeight = Math.max(1, Math.min(preview.getHeight() - top, Math.round(crop.height() * scale)));
+        Bitmap cropped = Bitmap.createBitmap(preview, left, top, cropWidth, cropHeight);
+        if (cropped != preview) {
+            preview.recycle();
+        }
+        return cropped;
+    }
+
+    private void cropBitmap(File photo, OutputFormat format) {
         Bitmap src = BitmapFactory.decodeFile(path);
         float koefW = (float) width / (float) src.getWidth();
         float koefH = (float) height / (float) src.getHeight();
@@ -68,14 +153,18 @@ public class CropPhotoTask extends AsyncTask<Void, Void, Void> {
 
         Bitmap bitmap = Bitmap.createBitmap(src, (int) rect.left, (int) rect.top, width, height);
 
+        RenditionWriter renditionWriter = new RenditionWriter(photo, policy);
+        renditionWriter.start(bitmap, renditions, false);
         FileOutputStream fos = null;
         try {
-            fos = new FileOutputStream(new File(path));
+            fos = new FileOutputStream(photo);
 
-            bitmap.compress(Bitmap.CompressFormat.JPEG, CameraConst.COMPRESS_QUALITY, fos);
+            ImageEncoder.encode(bitmap, format, policy.getQuality(format), fos);
 
         } catch (FileNotFoundException e) {
             Timber.e(e, "File not found: " + e.getMessage());
+        } catch (IOException e) {
+            Timber.e(e, "File write failure: " + e.getMessage());
         } finally {
             try {
                 if (fos != null) {
@@ -85,9 +174,8 @@ public class CropPhotoTask extends AsyncTask<Void, Void, Void> {
                 Timber.e(e, e.getMessage());
             }
         }
+        renditionWriter.finish();
         bitmap.recycle();
-
-        return null;
     }
 
     @Override
@@ -0,0 +1,79 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import timber.log.Timber;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Target;
+
+/**
+ * Decodes JPEG bytes that were handed off from the capture. Delivers null to the fallback if decoding fails.
+ */
+public class DecodeHandoffTask extends AsyncTask<Void, Void, Bitmap> {
+
+    private byte[] jpeg;
+    private int width;
+    private int height;
+    private Target target;
+    private Runnable fallback;
+
+    public DecodeHandoffTask(byte[] jpeg, int width, int height, Target target, Runnable fallback) {
+        this.jpeg = jpeg;
+        this.width = width;
+        this.height = height;
+        this.target = target;
+        this.fallback = fallback;
+    }
+
+    @Override
+    protected Bitmap doInBackground(Void... params) {
+        long time = System.currentTimeMillis();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = RenditionWriter.calculateInSampleSize(options, Math.max(width, height));
+        Bitmap bitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        jpeg = null;
+        if (bitmap != null) {
+            bitmap = new ScaleTransformation(width, height).transform(bitmap);
+        }
+        Timber.d("decode handoff(1/%1d): %2dms", options.inSampleSize, System.currentTimeMillis() - time);
+        return bitmap;
+    }
+
+    @Override
+    protected void onPostExecute(Bitmap bitmap) {
+        if (bitmap != null) {
+            target.onBitmapLoaded(bitmap, Picasso.LoadedFrom.MEMORY);
+        } else {
+            fallback.run();
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.yalantis.cameramodule.interfaces.DocumentCallback;
+import com.yalantis.cameramodule.interfaces.FrameAnalyzer;
+
+/**
+ * Tracks the page in preview frames with {@link DocumentDetector}. Corners are smoothed between frames, and the
+ * page is reported lost only after a few frames without it. Results are delivered on the main thread.
+ */
+public class DocumentAnalyzer implements FrameAnalyzer {
+
+    private static final int TARGET_RATE = 10;
+    private static final int TARGET_SIZE = 256;
+
+    /**
+     * Weight of the new corners when they are close to the previous ones
+     */
+    private static final float SMOOTHING = 0.5f;
+
+    /**
+     * Corner movement, as a part of the frame, above which the new corners replace the old ones
+     */
+    private static final float JUMP = 0.05f;
+
+    private static final int LOST_FRAMES = 3;
+
+    private DocumentDetector detector = new DocumentDetector();
+    private Handler main = new Handler(Looper.getMainLooper());
+    private DocumentCallback callback;
+    private volatile float[] quad;
+    private int misses;
+
+    public DocumentAnalyzer(DocumentCallback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * @return last page corners in parts of the preview frame, or null
+     */
+    public float[] getQuad() {
+        return quad;
+    }
+
+    @Override
+    public String getName() {
+        return "document";
+    }
+
+    @Override
+    public int getTargetRate() {
+        return TARGET_RATE;
+    }
+
+    @Override
+    public int getTargetSize() {
+        return TARGET_SIZE;
+    }
+
+    @Override
+    public void analyze(LumaPyramid pyramid, int level, long timestamp) {
+        float[] found = detector.detect(pyramid.getLevel(level), pyramid.getWidth(level), pyramid.getHeight(level));
+        float[] current = quad;
+        if (found == null) {
+            if (current == null || ++misses < LOST_FRAMES) {
+                return;
+            }
+            quad = null;
+        } else {
+            misses = 0;
+            if (current != null && distance(current, found) < JUMP) {
+                for (int i = 0; i < found.length; i++) {
+                    found[i] = current[i] + (found[i] - current[i]) * SMOOTHING;
+                }
+            }
+            quad = found;
+        }
+        final float[] result = quad;
+        main.post(new Runnable() {
+
+            @Override
+            public void run() {
+                callback.onDocumentChanged(result);
+            }
+        });
+    }
+
+    private static float distance(float[] a, float[] b) {
+        float max = 0;
+        for (int i = 0; i < a.length; i++) {
+            max = Math.max(max, Math.abs(a[i] - b[i]));
+        }
+        return max;
+    }
+
+}
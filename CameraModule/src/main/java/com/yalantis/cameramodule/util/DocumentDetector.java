@@ -0,0 +1,329 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.util.Arrays;
+
+/**
+ * Finds the page quadrilateral in a small luma image. Edges are found with a Sobel operator and vote in a Hough
+ * transform only near their gradient direction. The strongest pair of roughly vertical lines and the strongest
+ * pair of roughly horizontal lines, far enough apart, are the page sides; their intersections are the corners.
+ * <p/>
+ * Buffers are allocated once per image size. Not thread safe.
+ */
+public class DocumentDetector {
+
+    /**
+     * Hough angle step in degrees. Angles run from -45 to 135, so vertical lines are near 0 and horizontal near 90.
+     */
+    private static final int ANGLE_STEP = 2;
+    private static final int ANGLE_COUNT = 180 / ANGLE_STEP;
+    private static final int ANGLE_START = -45;
+
+    /**
+     * Angle bins on each side of the gradient direction an edge pixel votes for
+     */
+    private static final int VOTE_SPREAD = 3;
+
+    /**
+     * Weakest gradient magnitude that can be an edge, and part of pixels that are edges at most
+     */
+    private static final int MIN_EDGE = 48;
+    private static final float EDGE_PERCENTILE = 0.9f;
+
+    private static final int CANDIDATES = 8;
+
+    /**
+     * Smallest distance between opposite sides and smallest area, as parts of the image
+     */
+    private static final float MIN_SEPARATION = 0.25f;
+    private static final float MIN_AREA = 0.15f;
+
+    /**
+     * Votes a side needs, as a part of its length
+     */
+    private static final float MIN_SUPPORT = 0.3f;
+
+    /**
+     * How far out of the image a corner may be, as a part of the image
+     */
+    private static final float CORNER_SLACK = 0.05f;
+
+    private static final float[] COS = new float[ANGLE_COUNT];
+    private static final float[] SIN = new float[ANGLE_COUNT];
+
+    static {
+        for (int i = 0; i < ANGLE_COUNT; i++) {
+            double angle = Math.toRadians(ANGLE_START + i * ANGLE_STEP);
+            COS[i] = (float) Math.cos(angle);
+            SIN[i] = (float) Math.sin(angle);
+        }
+    }
+
+    private int width;
+    private int height;
+    private int maxRho;
+    private int[] smooth;
+    private int[] magnitude;
+    private int[] histogram = new int[1024];
+    private int[] accumulator;
+
+    /**
+     * @return corners top-left, top-right, bottom-right, bottom-left as x, y pairs in parts of the image size,
+     * or null if no page was found
+     */
+    public float[] detect(byte[] luma, int width, int height) {
+        prepare(width, height);
+        blur(luma);
+        int threshold = edges();
+        vote(threshold);
+
+        int[] vertical = findPeaks(0, ANGLE_COUNT / 2);
+        int[] horizontal = findPeaks(ANGLE_COUNT / 2, ANGLE_COUNT);
+        int[] sides = pickPair(vertical, width);
+        int[] ends = pickPair(horizontal, height);
+        if (sides == null || ends == null) {
+            return null;
+        }
+        // lower rho is left / top
+        float[] quad = new float[8];
+        if (!intersect(sides[0], ends[0], quad, 0) || !intersect(sides[1], ends[0], quad, 2)
+                || !intersect(sides[1], ends[1], quad, 4) || !intersect(sides[0], ends[1], quad, 6)) {
+            return null;
+        }
+        return isValid(quad) ? quad : null;
+    }
+
+    private void prepare(int width, int height) {
+        if (width == this.width && height == this.height) {
+            return;
+        }
+        this.width = width;
+        this.height = height;
+        maxRho = (int) Math.ceil(Math.sqrt(width * width + height * height));
+        smooth = new int[width * height];
+        magnitude = new int[width * height];
+        accumulator = new int[ANGLE_COUNT * (2 * maxRho + 1)];
+    }
+
+    private void blur(byte[] luma) {
+        for (int y = 0; y < height; y++) {
+            int up = Math.max(y - 1, 0) * width;
+            int row = y * width;
+            int down = Math.min(y + 1, height - 1) * width;
+            for (int x = 0; x < width; x++) {
+                int left = Math.max(x - 1, 0);
+                int right = Math.min(x + 1, width - 1);
+                smooth[row + x] = (luma[up + left] & 0xFF) + (luma[up + x] & 0xFF) + (luma[up + right] & 0xFF)
+                        + (luma[row + left] & 0xFF) + (luma[row + x] & 0xFF) + (luma[row + right] & 0xFF)
+                        + (luma[down + left] & 0xFF) + (luma[down + x] & 0xFF) + (luma[down + right] & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Computes Sobel magnitude of the 3x3 sums (so nine times the usual scale) and returns the edge threshold.
+     */
+    private int edges() {
+        Arrays.fill(magnitude, 0);
+        Arrays.fill(histogram, 0);
+        int count = 0;
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                int i = y * width + x;
+                int gx = gradientX(i);
+                int gy = gradientY(i);
+                int m = (Math.abs(gx) + Math.abs(gy)) / 9;
+                magnitude[i] = m;
+                histogram[Math.min(m, histogram.length - 1)]++;
+                count++;
+            }
+        }
+        int target = (int) (count * EDGE_PERCENTILE);
+        int sum = 0;
+        int threshold = 0;
+        while (threshold < histogram.length - 1 && sum + histogram[threshold] < target) {
+            sum += histogram[threshold];
+            threshold++;
+        }
+        return Math.max(threshold, MIN_EDGE);
+    }
+
+    private int gradientX(int i) {
+        return smooth[i - width + 1] + 2 * smooth[i + 1] + smooth[i + width + 1]
+                - smooth[i - width - 1] - 2 * smooth[i - 1] - smooth[i + width - 1];
+    }
+
+    private int gradientY(int i) {
+        return smooth[i + width - 1] + 2 * smooth[i + width] + smooth[i + width + 1]
+                - smooth[i - width - 1] - 2 * smooth[i - width] - smooth[i - width + 1];
+    }
+
+    private void vote(int threshold) {
+        Arrays.fill(accumulator, 0);
+        int rhoCount = 2 * maxRho + 1;
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                int i = y * width + x;
+                if (magnitude[i] < threshold) {
+                    continue;
+                }
+                double angle = Math.toDegrees(Math.atan2(gradientY(i), gradientX(i)));
+                // a line normal and its opposite are the same line
+                while (angle < ANGLE_START) {
+                    angle += 180;
+                }
+                while (angle >= ANGLE_START + 180) {
+                    angle -= 180;
+                }
+                int center = (int) Math.round((angle - ANGLE_START) / ANGLE_STEP);
+                for (int d = -VOTE_SPREAD; d <= VOTE_SPREAD; d++) {
+                    // angles past either end wrap around as the same line with opposite normal
+                    int bin = (center + d + ANGLE_COUNT) % ANGLE_COUNT;
+                    int rho = Math.round(x * COS[bin] + y * SIN[bin]);
+                    accumulator[bin * rhoCount + rho + maxRho]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return up to {@link #CANDIDATES} strongest local maxima within angle bins [from, to), packed as
+     * bin * rhoCount + rho index, strongest first; unused entries are -1
+     */
+    private int[] findPeaks(int from, int to) {
+        int rhoCount = 2 * maxRho + 1;
+        int[] peaks = new int[CANDIDATES];
+        Arrays.fill(peaks, -1);
+        for (int bin = from; bin < to; bin++) {
+            for (int rho = 0; rho < rhoCount; rho++) {
+                int index = bin * rhoCount + rho;
+                int votes = accumulator[index];
+                if (votes == 0 || !isLocalMaximum(bin, rho, votes)) {
+                    continue;
+                }
+                for (int k = 0; k < CANDIDATES; k++) {
+                    if (peaks[k] < 0 || votes > accumulator[peaks[k]]) {
+                        System.arraycopy(peaks, k, peaks, k + 1, CANDIDATES - k - 1);
+                        peaks[k] = index;
+                        break;
+                    }
+                }
+            }
+        }
+        return peaks;
+    }
+
+    private boolean isLocalMaximum(int bin, int rho, int votes) {
+        int rhoCount = 2 * maxRho + 1;
+        for (int b = Math.max(bin - 2, 0); b <= Math.min(bin + 2, ANGLE_COUNT - 1); b++) {
+            for (int r = Math.max(rho - 3, 0); r <= Math.min(rho + 3, rhoCount - 1); r++) {
+                int other = accumulator[b * rhoCount + r];
+                if (other > votes || (other == votes && (b < bin || (b == bin && r < rho)))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Picks the strongest two candidates that are roughly parallel and far enough apart.
+     *
+     * @return the pair ordered by rho, or null
+     */
+    private int[] pickPair(int[] peaks, int extent) {
+        int rhoCount = 2 * maxRho + 1;
+        int minVotes = (int) (Math.min(width, height) * MIN_SUPPORT);
+        int best = -1;
+        int[] pair = null;
+        for (int i = 0; i < peaks.length; i++) {
+            for (int j = i + 1; j < peaks.length; j++) {
+                if (peaks[i] < 0 || peaks[j] < 0) {
+                    continue;
+                }
+                int votesI = accumulator[peaks[i]];
+                int votesJ = accumulator[peaks[j]];
+                int binI = peaks[i] / rhoCount;
+                int binJ = peaks[j] / rhoCount;
+                int rhoI = peaks[i] % rhoCount - maxRho;
+                int rhoJ = peaks[j] % rhoCount - maxRho;
+                if (votesI < minVotes || votesJ < minVotes || Math.abs(binI - binJ) * ANGLE_STEP > 30
+                        || Math.abs(rhoI - rhoJ) < extent * MIN_SEPARATION || votesI + votesJ <= best) {
+                    continue;
+                }
+                best = votesI + votesJ;
+                pair = rhoI < rhoJ ? new int[] {peaks[i], peaks[j]} : new int[] {peaks[j], peaks[i]};
+            }
+        }
+        return pair;
+    }
+
+    private boolean intersect(int first, int second, float[] quad, int offset) {
+        int rhoCount = 2 * maxRho + 1;
+        int bin1 = first / rhoCount;
+        int bin2 = second / rhoCount;
+        float rho1 = first % rhoCount - maxRho;
+        float rho2 = second % rhoCount - maxRho;
+        float det = COS[bin1] * SIN[bin2] - SIN[bin1] * COS[bin2];
+        if (Math.abs(det) < 1e-3f) {
+            return false;
+        }
+        float x = (rho1 * SIN[bin2] - rho2 * SIN[bin1]) / det;
+        float y = (COS[bin1] * rho2 - COS[bin2] * rho1) / det;
+        quad[offset] = x / width;
+        quad[offset + 1] = y / height;
+        return true;
+    }
+
+    /**
+     * Corners must be near the image, the quadrilateral convex and large enough.
+     */
+    private static boolean isValid(float[] quad) {
+        for (float value : quad) {
+            if (value < -CORNER_SLACK || value > 1 + CORNER_SLACK) {
+                return false;
+            }
+        }
+        float area = 0;
+        int sign = 0;
+        for (int i = 0; i < 4; i++) {
+            float x0 = quad[2 * i];
+            float y0 = quad[2 * i + 1];
+            float x1 = quad[(2 * i + 2) % 8];
+            float y1 = quad[(2 * i + 3) % 8];
+            float x2 = quad[(2 * i + 4) % 8];
+            float y2 = quad[(2 * i + 5) % 8];
+            float cross = (x1 - x0) * (y2 - y1) - (y1 - y0) * (x2 - x1);
+            int s = cross > 0 ? 1 : -1;
+            if (sign != 0 && s != sign) {
+                return false;
+            }
+            sign = s;
+            area += x0 * y1 - x1 * y0;
+        }
+        return Math.abs(area) / 2 >= MIN_AREA;
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import timber.log.Timber;
+import android.graphics.Bitmap;
+import android.media.ExifInterface;
+import android.os.AsyncTask;
+
+import com.yalantis.cameramodule.CameraConst;
+import com.yalantis.cameramodule.interfaces.PhotoTakenCallback;
+
+/**
+ * Cuts the page out of a picture with {@link PerspectiveWarp} and passes it upright to the callback as JPEG, sized
+ * for an A4 page at the given DPI (never larger than the heap allows) with the DPI written to the JFIF header.
+ */
+public class DocumentWarpTask extends AsyncTask<Void, Void, byte[]> {
+
+    /**
+     * Long side of an A4 page
+     */
+    private static final float PAGE_LENGTH_INCHES = 11.69f;
+
+    private byte[] data;
+    private float[] quad;
+    private int orientation;
+    private int dpi;
+    private PhotoTakenCallback callback;
+
+    /**
+     * @param quad        page corners in parts of the preview frame, as {@link DocumentDetector} returns them
+     * @param orientation clockwise rotation that makes the picture upright
+     */
+    public DocumentWarpTask(byte[] data, float[] quad, int orientation, int dpi, PhotoTakenCallback callback) {
+        this.data = data;
+        this.quad = quad;
+        this.orientation = orientation;
+        this.dpi = dpi;
+        this.callback = callback;
+    }
+
+    @Override
+    protected byte[] doInBackground(Void... params) {
+        long time = System.currentTimeMillis();
+        RegionTileSource source = null;
+        Bitmap output = null;
+        try {
+            source = new RegionTileSource(Collections.singletonList(data));
+            int sourceWidth = source.getWidth();
+            int sourceHeight = source.getHeight();
+            float[] corners = toPictureCorners(quad, sourceWidth, sourceHeight, orientation);
+
+            float pageWidth = (distance(corners, 0, 1) + distance(corners, 3, 2)) / 2;
+            float pageHeight = (distance(corners, 0, 3) + distance(corners, 1, 2)) / 2;
+            float scale = PAGE_LENGTH_INCHES * dpi / Math.max(pageWidth, pageHeight);
+            long budget = PictureSizeSelector.getHeapBudget();
+            while (scale > 0.1f && PictureSizeSelector.getHeapBytes((long) (pageWidth * pageHeight * scale * scale))
+                    > budget) {
+                scale *= 0.9f;
+            }
+            int width = Math.max(1, Math.round(pageWidth * scale));
+            int height = Math.max(1, Math.round(pageHeight * scale));
+
+            output = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            PerspectiveWarp.warp(source, 0, sourceWidth, sourceHeight, corners, width, height,
+                    new BitmapTileSink(output));
+            long warpTime = Math.max(1, System.currentTimeMillis() - time);
+            Timber.d("document warp %1dx%2d: %3dms, %4.1f Mpx/s", width, height, warpTime,
+                    width * height / 1000f / warpTime);
+
+            time = System.currentTimeMillis();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length);
+            ParallelJpegEncoder.encode(output, CameraConst.COMPRESS_QUALITY, bos);
+            byte[] jpeg = bos.toByteArray();
+            setJfifDensity(jpeg, dpi);
+            Timber.d("compress: %1dms", System.currentTimeMillis() - time);
+            return jpeg;
+        } catch (IOException e) {
+            Timber.e(e, "Document warp failure: " + e.getMessage());
+            return null;
+        } finally {
+            if (source != null) {
+                source.recycle();
+            }
+            if (output != null) {
+                output.recycle();
+            }
+        }
+    }
+
+    @Override
+    protected void onPostExecute(byte[] result) {
+        if (result != null) {
+            callback.photoTaken(result, ExifInterface.ORIENTATION_UNDEFINED);
+        } else {
+            callback.photoTaken(data, orientation);
+        }
+        data = null;
+    }
+
+    /**
+     * Maps corners from the preview frame into the picture and orders them so that the first one is the top-left
+     * corner of the upright page. Cameras either rotate picture pixels themselves or leave them in sensor
+     * orientation like the preview; a portrait picture taken at 90 or 270 degrees was rotated by the camera.
+     */
+    private static float[] toPictureCorners(float[] quad, int width, int height, int orientation) {
+        boolean rotated = (orientation == 90 || orientation == 270) && width < height;
+        int turns = rotated ? 0 : orientation / 90;
+        float[] corners = new float[8];
+        for (int i = 0; i < 4; i++) {
+            int from = 2 * ((i + 4 - turns) % 4);
+            float x = quad[from];
+            float y = quad[from + 1];
+            if (rotated) {
+                float sensorX = x;
+                x = orientation == 90 ? 1 - y : y;
+                y = orientation == 90 ? sensorX : 1 - sensorX;
+            }
+            corners[2 * i] = x * width;
+            corners[2 * i + 1] = y * height;
+        }
+        return corners;
+    }
+
+    private static float distance(float[] corners, int a, int b) {
+        float dx = corners[2 * a] - corners[2 * b];
+        float dy = corners[2 * a + 1] - corners[2 * b + 1];
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Sets dots per inch in the JFIF APP0 segment that starts the JPEG, if there is one.
+     */
+    private static void setJfifDensity(byte[] jpeg, int dpi) {
+        if (jpeg.length < 18 || (jpeg[2] & 0xFF) != 0xFF || (jpeg[3] & 0xFF) != 0xE0 || jpeg[6] != 'J'
+                || jpeg[7] != 'F' || jpeg[8] != 'I' || jpeg[9] != 'F' || jpeg[10] != 0) {
+            return;
+        }
+        jpeg[13] = 1;
+        jpeg[14] = (byte) (dpi >> 8);
+        jpeg[15] = (byte) dpi;
+        jpeg[16] = (byte) (dpi >> 8);
+        jpeg[17] = (byte) dpi;
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Inserts a minimal EXIF (APP1) segment with a JPEG thumbnail into JPEG streams that have none,
+ * e.g. the output of {@link android.graphics.Bitmap#compress}.
+ */
+public final class ExifThumbnailWriter {
+
+    /** Thumbnail and EXIF header have to fit in one 64K marker segment */
+    public static final int MAX_THUMBNAIL_BYTES = 0xFFFF - 2 - 6 - 68;
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+
+    private ExifThumbnailWriter() {
+    }
+
+    /**
+     * @return true if JPEG data already contains an EXIF APP1 segment
+     */
+    public static boolean hasExif(byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != MARKER_SOI) {
+            return false;
+        }
+        int pos = 2;
+        while (pos + 4 <= jpeg.length) {
+            if ((jpeg[pos] & 0xFF) != 0xFF) {
+                return false;
+            }
+            int marker = jpeg[pos + 1] & 0xFF;
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                return false;
+            }
+            int length = ((jpeg[pos + 2] & 0xFF) << 8) | (jpeg[pos + 3] & 0xFF);
+            if (marker == MARKER_APP1 && pos + 10 <= jpeg.length
+                    && jpeg[pos + 4] == 'E' && jpeg[pos + 5] == 'x' && jpeg[pos + 6] == 'i' && jpeg[pos + 7] == 'f') {
+                return true;
+            }
+            pos += 2 + length;
+        }
+        return false;
+    }
+
+    /**
+     * Writes JPEG data with an EXIF segment holding the thumbnail. APP1 goes right after SOI
+     * or after the JFIF APP0 segment if there is one.
+     */
+    public static void write(OutputStream out, byte[] jpeg, int length, byte[] thumbnail) throws IOException {
+        if (thumbnail == null || thumbnail.length > MAX_THUMBNAIL_BYTES
+                || length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != MARKER_SOI) {
+            out.write(jpeg, 0, length);
+            return;
+        }
+        int insertAt = 2;
+        if ((jpeg[2] & 0xFF) == 0xFF && (jpeg[3] & 0xFF) == MARKER_APP0) {
+            insertAt += 2 + (((jpeg[4] & 0xFF) << 8) | (jpeg[5] & 0xFF));
+        }
+        out.write(jpeg, 0, insertAt);
+        out.write(buildApp1(thumbnail));
+        out.write(jpeg, insertAt, length - insertAt);
+    }
+
+    /**
+     * @return bytes {@link #write} adds to the JPEG for the thumbnail
+     */
+    public static int getSegmentSize(byte[] thumbnail) {
+        if (thumbnail == null || thumbnail.length > MAX_THUMBNAIL_BYTES) {
+            return 0;
+        }
+        return 2 + 2 + 6 + 8 + 18 + 42 + thumbnail.length;
+    }
+
+    /**
+     * TIFF layout: header, IFD0 with orientation only, IFD1 pointing to the thumbnail that follows it.
+     */
+    static byte[] buildApp1(byte[] thumbnail) {
+        int tiffSize = 8 + 18 + 42 + thumbnail.length;
+        int segmentLength = 2 + 6 + tiffSize;
+        byte[] result = new byte[2 + segmentLength];
+        Writer w = new Writer(result);
+        w.u8(0xFF);
+        w.u8(MARKER_APP1);
+        w.u16(segmentLength);
+        w.u8('E');
+        w.u8('x');
+        w.u8('i');
+        w.u8('f');
+        w.u8(0);
+        w.u8(0);
+        // TIFF header, big endian
+        w.u8('M');
+        w.u8('M');
+        w.u16(0x002A);
+        w.u32(8);
+        // IFD0
+        w.u16(1);
+        w.entry(0x0112, 3, 1, 1 << 16); // orientation normal, SHORT is left aligned
+        w.u32(8 + 18);
+        // IFD1
+        w.u16(3);
+        w.entry(0x0103, 3, 1, 6 << 16); // compression: JPEG
+        w.entry(0x0201, 4, 1, 8 + 18 + 42); // JPEGInterchangeFormat
+        w.entry(0x0202, 4, 1, thumbnail.length); // JPEGInterchangeFormatLength
+        w.u32(0);
+        System.arraycopy(thumbnail, 0, result, w.pos, thumbnail.length);
+        return result;
+    }
+
+    private static class Writer {
+
+        private final byte[] buffer;
+        private int pos;
+
+        Writer(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        void u8(int value) {
+            buffer[pos++] = (byte) value;
+        }
+
+        void u16(int value) {
+            u8(value >> 8);
+            u8(value);
+        }
+
+        void u32(int value) {
+            u16(value >>> 16);
+            u16(value);
+        }
+
+        void entry(int tag, int type, int count, int value) {
+            u16(tag);
+            u16(type);
+            u32(count);
+            u32(value);
+        }
+
+    }
+
+}
@@ -0,0 +1,271 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.yalantis.cameramodule.interfaces.TileSink;
+import com.yalantis.cameramodule.interfaces.TileSource;
+
+/**
+ * Exposure fusion of a bracket of same-size ARGB tiles. Each frame is weighted per pixel by how well exposed and
+ * how detailed it is, and the weights are smoothed over {@link #RADIUS} pixels to avoid seams and noise. A tile
+ * needs {@link #MARGIN} extra pixels on every side (where the image has them) to match its neighbours exactly.
+ */
+public class ExposureFusion {
+
+    public static final int RADIUS = 8;
+    public static final int MARGIN = RADIUS + 1;
+
+    private static final float SIGMA = 0.2f;
+    private static final float CONTRAST_WEIGHT = 4f;
+    private static final float EPSILON = 1e-6f;
+
+    private static final float[] WELL_EXPOSED = new float[256];
+
+    static {
+        for (int i = 0; i < WELL_EXPOSED.length; i++) {
+            float l = i / 255f - 0.5f;
+            WELL_EXPOSED[i] = (float) Math.exp(-l * l / (2 * SIGMA * SIGMA));
+        }
+    }
+
+    /**
+     * Bytes per tile pixel for a bracket of given size: ARGB input and weight per frame, plus output and scratch
+     */
+    public static int getBytesPerPixel(int frames) {
+        return frames * 8 + 8;
+    }
+
+    /**
+     * Side of square tiles (without margins) such that tiles processed at once on {@link WorkerPool} fit the
+     * memory budget
+     */
+    public static int getTileSize(long budget, int frames) {
+        long perWorker = budget / WorkerPool.CPU_COUNT / getBytesPerPixel(frames);
+        int side = (int) Math.sqrt(perWorker) - 2 * MARGIN;
+        return Math.max(side, 2 * MARGIN);
+    }
+
+    /**
+     * Fuses a bracket of width x height frames tile by tile in parallel on {@link WorkerPool}. Only as many tiles
+     * as there are workers are in memory at once.
+     */
+    public static void merge(final TileSource source, final int frames, final int width, final int height,
+                             long budget, final TileSink sink) {
+        final int tileSize = getTileSize(budget, frames);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int top = 0; top < height; top += tileSize) {
+            for (int left = 0; left < width; left += tileSize) {
+                final int tileLeft = left;
+                final int tileTop = top;
+                tasks.add(new Callable<Void>() {
+
+                    @Override
+                    public Void call() {
+                        mergeTile(source, frames, width, height, tileLeft, tileTop,
+                                Math.min(tileLeft + tileSize, width), Math.min(tileTop + tileSize, height), sink);
+                        return null;
+                    }
+                });
+            }
+        }
+        WorkerPool.invokeAll(tasks);
+    }
+
+    /**
+     * Fusion as a {@link TileSource} of width x height, for consumers that pull the result band by band, such as
+     * {@link ParallelJpegEncoder}. The result is never held in full: each read is fused on the calling thread in
+     * chunks with margins.
+     *
+     * @param readBudget bytes one read may take, reads made at once share the budget of the caller
+     */
+    public static TileSource asTileSource(TileSource source, int frames, int width, int height, long readBudget) {
+        return new FusedSource(source, frames, width, height, readBudget);
+    }
+
+    private static void mergeTile(TileSource source, int frames, int width, int height, int left, int top,
+                                  int right, int bottom, TileSink sink) {
+        int outerLeft = Math.max(left - MARGIN, 0);
+        int outerTop = Math.max(top - MARGIN, 0);
+        int outerWidth = Math.min(right + MARGIN, width) - outerLeft;
+        int outerHeight = Math.min(bottom + MARGIN, height) - outerTop;
+
+        int[][] tiles = new int[frames][];
+        for (int f = 0; f < frames; f++) {
+            tiles[f] = source.readTile(f, outerLeft, outerTop, outerWidth, outerHeight);
+        }
+        int[] out = new int[outerWidth * outerHeight];
+        fuse(tiles, outerWidth, outerHeight, out);
+        int offset = (top - outerTop) * outerWidth + left - outerLeft;
+        sink.writeTile(out, offset, outerWidth, left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Fuses frames into out. All arrays hold width * height pixels.
+     */
+    public static void fuse(int[][] frames, int width, int height, int[] out) {
+        int count = width * height;
+        float[][] weights = new float[frames.length][];
+        float[] scratch = new float[count];
+        for (int f = 0; f < frames.length; f++) {
+            weights[f] = weigh(frames[f], width, height, scratch);
+        }
+        for (int i = 0; i < count; i++) {
+            float sum = 0;
+            for (int f = 0; f < frames.length; f++) {
+                sum += weights[f][i];
+            }
+            float r = 0;
+            float g = 0;
+            float b = 0;
+            for (int f = 0; f < frames.length; f++) {
+                float w = sum > EPSILON ? weights[f][i] / sum : 1f / frames.length;
+                int color = frames[f][i];
+                r += w * ((color >> 16) & 0xFF);
+                g += w * ((color >> 8) & 0xFF);
+                b += w * (color & 0xFF);
+            }
+            out[i] = 0xFF000000 | clamp(r) << 16 | clamp(g) << 8 | clamp(b);
+        }
+    }
+
+    private static float[] weigh(int[] argb, int width, int height, float[] scratch) {
+        int count = width * height;
+        float[] weight = new float[count];
+        // luma goes to scratch first, it is needed for the Laplacian
+        for (int i = 0; i < count; i++) {
+            int color = argb[i];
+            scratch[i] = (77 * ((color >> 16) & 0xFF) + 150 * ((color >> 8) & 0xFF) + 29 * (color & 0xFF)) >> 8;
+        }
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int i = row + x;
+                float l = scratch[i];
+                float contrast = 0;
+                if (x > 0 && y > 0 && x < width - 1 && y < height - 1) {
+                    contrast = Math.abs(4 * l - scratch[i - 1] - scratch[i + 1] - scratch[i - width]
+                            - scratch[i + width]) / 255f;
+                }
+                weight[i] = WELL_EXPOSED[(int) l] * (1 + CONTRAST_WEIGHT * contrast);
+            }
+        }
+        boxBlur(weight, scratch, width, height);
+        return weight;
+    }
+
+    /**
+     * Separable box blur with running sums, clamped to the tile.
+     */
+    private static void boxBlur(float[] data, float[] scratch, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            float sum = 0;
+            for (int x = 0; x < Math.min(RADIUS, width); x++) {
+                sum += data[row + x];
+            }
+            for (int x = 0; x < width; x++) {
+                if (x + RADIUS < width) {
+                    sum += data[row + x + RADIUS];
+                }
+                if (x - RADIUS - 1 >= 0) {
+                    sum -= data[row + x - RADIUS - 1];
+                }
+                int span = Math.min(x + RADIUS, width - 1) - Math.max(x - RADIUS, 0) + 1;
+                scratch[row + x] = sum / span;
+            }
+        }
+        for (int x = 0; x < width; x++) {
+            float sum = 0;
+            for (int y = 0; y < Math.min(RADIUS, height); y++) {
+                sum += scratch[y * width + x];
+            }
+            for (int y = 0; y < height; y++) {
+                if (y + RADIUS < height) {
+                    sum += scratch[(y + RADIUS) * width + x];
+                }
+                if (y - RADIUS - 1 >= 0) {
+                    sum -= scratch[(y - RADIUS - 1) * width + x];
+                }
+                int span = Math.min(y + RADIUS, height - 1) - Math.max(y - RADIUS, 0) + 1;
+                data[y * width + x] = sum / span;
+            }
+        }
+    }
+
+    private static class FusedSource implements TileSource {
+
+        private final TileSource source;
+        private final int frames;
+        private final int width;
+        private final int height;
+        private final long chunkPixels;
+        private final int chunkSide;
+
+        FusedSource(TileSource source, int frames, int width, int height, long readBudget) {
+            this.source = source;
+            this.frames = frames;
+            this.width = width;
+            this.height = height;
+            chunkPixels = readBudget / getBytesPerPixel(frames);
+            chunkSide = Math.max((int) Math.sqrt(chunkPixels) - 2 * MARGIN, 2 * MARGIN);
+        }
+
+        @Override
+        public int[] readTile(int frame, final int left, final int top, final int width, int height) {
+            final int[] out = new int[width * height];
+            TileSink sink = new TileSink() {
+
+                @Override
+                public void writeTile(int[] pixels, int offset, int stride, int tileLeft, int tileTop, int tileWidth,
+                                      int tileHeight) {
+                    for (int y = 0; y < tileHeight; y++) {
+                        System.arraycopy(pixels, offset + y * stride, out,
+                                (tileTop - top + y) * width + tileLeft - left, tileWidth);
+                    }
+                }
+            };
+            // bands are short, so chunks take as many columns as the budget allows
+            int rows = Math.min(height, chunkSide);
+            int columns = (int) Math.max(chunkSide, chunkPixels / (rows + 2 * MARGIN) - 2 * MARGIN);
+            for (int y = 0; y < height; y += rows) {
+                for (int x = 0; x < width; x += columns) {
+                    mergeTile(source, frames, this.width, this.height, left + x, top + y,
+                            left + Math.min(x + columns, width), top + Math.min(y + rows, height), sink);
+                }
+            }
+            return out;
+        }
+
+    }
+
+    private static int clamp(float value) {
+        int v = Math.round(value);
+        return v < 0 ? 0 : v > 255 ? 255 : v;
+    }
+
+}
@@ -0,0 +1,454 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.yalantis.cameramodule.interfaces.FrameAnalyzer;
+import com.yalantis.cameramodule.interfaces.PreviewFrameCallback;
+
+/**
+ * Registry of preview frame analyzers. While any analyzer is registered, preview frames come in through two
+ * preallocated callback buffers. Each frame is reduced once into one of two reused {@link LumaPyramid}s that is
+ * shared by the analyzers due for that frame, and the buffer goes straight back to the camera. Analyzers run on
+ * {@link WorkerPool}; an analyzer still busy with an earlier frame is skipped rather than queued.
+ * <p/>
+ * Whole frames can be requested one at a time with {@link #requestFrame(PreviewFrameCallback)}. With
+ * {@link #setRetainLastFrame(boolean)} the newest frame is kept in its buffer, so it is at hand when the preview
+ * stops for a picture. Analyzers read the same buffer, which goes back to the camera once both are done with it.
+ */
+public class FrameAnalyzerPipeline implements Camera.PreviewCallback {
+
+    private static final int BUFFER_COUNT = 2;
+
+    /**
+     * Shortest side of the smallest pyramid level
+     */
+    private static final int MIN_PYRAMID_SIDE = 32;
+
+    private Camera camera;
+    private List<Slot> slots = new CopyOnWriteArrayList<>();
+    private List<PreviewFrameCallback> frameRequests = new ArrayList<>();
+
+    private HandlerThread thread;
+    private Handler worker;
+    private byte[][] buffers;
+    private int frameWidth;
+    private int frameHeight;
+    private int frameFormat;
+    private volatile boolean attached;
+    /**
+     * Guards the buffer hand-over between the camera, the main thread and the worker
+     */
+    private final Object lock = new Object();
+    private boolean busy;
+    private byte[] pendingFrame;
+    private byte[] heldFrame;
+    private boolean retainLastFrame;
+    private byte[] lastFrame;
+    private int droppedFrames;
+    /**
+     * Rebuilt in place on the worker, one can be read by analyzers while the other is filled
+     */
+    private final SharedPyramid[] pyramids = {new SharedPyramid(), new SharedPyramid()};
+
+    public FrameAnalyzerPipeline(Camera camera) {
+        this.camera = camera;
+    }
+
+    public void add(FrameAnalyzer analyzer) {
+        for (Slot slot : slots) {
+            if (slot.analyzer == analyzer) {
+                return;
+            }
+        }
+        slots.add(new Slot(analyzer));
+        attach();
+    }
+
+    public void remove(FrameAnalyzer analyzer) {
+        for (Slot slot : slots) {
+            if (slot.analyzer == analyzer) {
+                slots.remove(slot);
+                Timber.d(slot.toString());
+            }
+        }
+        if (!isNeeded()) {
+            detach();
+        }
+    }
+
+    /**
+     * Delivers a copy of the next preview frame. Call on the main thread.
+     */
+    public void requestFrame(PreviewFrameCallback callback) {
+        frameRequests.add(callback);
+        attach();
+    }
+
+    /**
+     * Keeps the newest preview frame out of the camera buffer queue until the next one arrives. Analyzers still get
+     * every frame as it arrives.
+     */
+    public void setRetainLastFrame(boolean retain) {
+        if (retainLastFrame != retain) {
+            retainLastFrame = retain;
+            restart();
+        }
+    }
+
+    /**
+     * @return the newest preview frame if it is retained, or null. The buffer goes back to the camera with the next
+     * frame, so read it on the main thread and do not keep it.
+     */
+    public byte[] getLastFrame() {
+        return lastFrame;
+    }
+
+    public int getFrameWidth() {
+        return frameWidth;
+    }
+
+    public int getFrameHeight() {
+        return frameHeight;
+    }
+
+    /**
+     * Reallocates buffers for the current preview size, call after the preview is restarted.
+     */
+    public void restart() {
+        detach();
+        attach();
+    }
+
+    /**
+     * Stops frame delivery and the analysis thread. Registered analyzers stay and get frames again after
+     * {@link #restart()}.
+     */
+    public void release() {
+        frameRequests.clear();
+        detach();
+        if (thread != null) {
+            thread.quit();
+            thread = null;
+            worker = null;
+        }
+        synchronized (lock) {
+            buffers = null;
+        }
+    }
+
+    /**
+     * @return longest target size of registered analyzers, 0 if there are none
+     */
+    public int getMaxTargetSize() {
+        int size = 0;
+        for (Slot slot : slots) {
+            size = Math.max(size, slot.analyzer.getTargetSize());
+        }
+        return size;
+    }
+
+    /**
+     * @return timing and skip counters of registered analyzers
+     */
+    public String getReport() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("dropped frames: ").append(droppedFrames);
+        for (Slot slot : slots) {
+            builder.append('\n').append(slot);
+        }
+        return builder.toString();
+    }
+
+    private void attach() {
+        if (attached || !isNeeded()) {
+            return;
+        }
+        Camera.Parameters parameters = camera.getParameters();
+        Camera.Size size = parameters.getPreviewSize();
+        if (thread == null) {
+            thread = new HandlerThread("frame-analysis", Process.THREAD_PRIORITY_DISPLAY);
+            thread.start();
+            worker = new Handler(thread.getLooper());
+        }
+        synchronized (lock) {
+            allocate(size.width, size.height, parameters.getPreviewFormat());
+            attached = true;
+            for (byte[] buffer : buffers) {
+                // the worker returns the buffer it still holds when it is done with it
+                if (buffer != heldFrame) {
+                    camera.addCallbackBuffer(buffer);
+                }
+            }
+        }
+        camera.setPreviewCallbackWithBuffer(this);
+    }
+
+    private boolean isNeeded() {
+        return !slots.isEmpty() || !frameRequests.isEmpty() || retainLastFrame;
+    }
+
+    private void deliverFrame(byte[] data) {
+        byte[] copy = data.clone();
+        for (PreviewFrameCallback callback : frameRequests) {
+            callback.onPreviewFrame(copy, frameWidth, frameHeight, frameFormat);
+        }
+        frameRequests.clear();
+    }
+
+    private void detach() {
+        if (!attached) {
+            return;
+        }
+        synchronized (lock) {
+            attached = false;
+            busy = false;
+            pendingFrame = null;
+            lastFrame = null;
+        }
+        if (worker != null) {
+            worker.removeCallbacks(buildRunnable);
+        }
+        camera.setPreviewCallbackWithBuffer(null);
+    }
+
+    private void allocate(int width, int height, int format) {
+        int size = width * height * ImageFormat.getBitsPerPixel(format) / 8;
+        int count = retainLastFrame ? BUFFER_COUNT + 1 : BUFFER_COUNT;
+        frameFormat = format;
+        if (buffers != null && width == frameWidth && height == frameHeight && buffers[0].length == size
+                && buffers.length == count) {
+            return;
+        }
+        frameWidth = width;
+        frameHeight = height;
+        buffers = new byte[count][size];
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        if (!attached || data == null) {
+            return;
+        }
+        if (!frameRequests.isEmpty()) {
+            deliverFrame(data);
+            if (!isNeeded()) {
+                camera.addCallbackBuffer(data);
+                detach();
+                return;
+            }
+        }
+        boolean analyzed = false;
+        synchronized (lock) {
+            byte[] previous = lastFrame;
+            if (retainLastFrame) {
+                lastFrame = data;
+            }
+            if (!slots.isEmpty()) {
+                if (busy) {
+                    droppedFrames++;
+                } else {
+                    busy = true;
+                    pendingFrame = data;
+                    analyzed = true;
+                }
+            }
+            if (previous != null && previous != data) {
+                recycle(previous);
+            }
+            recycle(data);
+        }
+        if (analyzed) {
+            worker.post(buildRunnable);
+        }
+    }
+
+    /**
+     * Gives the buffer back to the camera unless it is retained or the worker still reads it. Call under the lock.
+     */
+    private void recycle(byte[] frame) {
+        if (attached && frame != lastFrame && frame != pendingFrame && frame != heldFrame && isBuffer(frame)) {
+            camera.addCallbackBuffer(frame);
+        }
+    }
+
+    /**
+     * @return pyramid no analyzer reads, only the worker can hand it out so it stays free until then
+     */
+    private SharedPyramid getFreePyramid() {
+        for (SharedPyramid pyramid : pyramids) {
+            if (pyramid.users.get() == 0) {
+                return pyramid;
+            }
+        }
+        return null;
+    }
+
+    private boolean isBuffer(byte[] frame) {
+        for (byte[] buffer : buffers) {
+            if (buffer == frame) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Runnable buildRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            byte[] frame;
+            int width;
+            int height;
+            synchronized (lock) {
+                frame = pendingFrame;
+                if (frame == null) {
+                    return;
+                }
+                heldFrame = frame;
+                width = frameWidth;
+                height = frameHeight;
+            }
+            long now = System.currentTimeMillis();
+            int size = 0;
+            for (Slot slot : slots) {
+                if (slot.isDue(now)) {
+                    size = Math.max(size, slot.analyzer.getTargetSize());
+                }
+            }
+            SharedPyramid pyramid = null;
+            if (size > 0) {
+                pyramid = getFreePyramid();
+                if (pyramid != null) {
+                    pyramid.pyramid.setNv21(frame, width, height, size, MIN_PYRAMID_SIDE);
+                }
+            }
+            synchronized (lock) {
+                if (size > 0 && pyramid == null) {
+                    // analyzers still read both pyramids
+                    droppedFrames++;
+                }
+                heldFrame = null;
+                // after a detach the frame is stale, a new one may be pending already
+                if (pendingFrame == frame) {
+                    pendingFrame = null;
+                    busy = false;
+                }
+                recycle(frame);
+            }
+            if (pyramid == null) {
+                return;
+            }
+            for (Slot slot : slots) {
+                if (slot.isDue(now)) {
+                    slot.submit(pyramid, now);
+                }
+            }
+        }
+    };
+
+    private static class SharedPyramid {
+
+        private final LumaPyramid pyramid = new LumaPyramid();
+        private final AtomicInteger users = new AtomicInteger();
+
+    }
+
+    private static class Slot implements Runnable {
+
+        private final FrameAnalyzer analyzer;
+        private final long interval;
+        private final AtomicBoolean running = new AtomicBoolean();
+        private long lastRun;
+        private SharedPyramid pyramid;
+        private long timestamp;
+
+        private volatile int runs;
+        private volatile int skipped;
+        private volatile long totalTime;
+        private volatile long maxTime;
+
+        Slot(FrameAnalyzer analyzer) {
+            this.analyzer = analyzer;
+            int rate = analyzer.getTargetRate();
+            interval = rate > 0 ? 1000 / rate : 0;
+        }
+
+        boolean isDue(long now) {
+            return now - lastRun >= interval;
+        }
+
+        void submit(SharedPyramid pyramid, long now) {
+            if (!running.compareAndSet(false, true)) {
+                skipped++;
+                return;
+            }
+            pyramid.users.incrementAndGet();
+            lastRun = now;
+            this.pyramid = pyramid;
+            this.timestamp = now;
+            WorkerPool.get().execute(this);
+        }
+
+        @Override
+        public void run() {
+            long time = System.currentTimeMillis();
+            try {
+                LumaPyramid levels = pyramid.pyramid;
+                analyzer.analyze(levels, levels.getLevelFor(analyzer.getTargetSize()), timestamp);
+            } catch (RuntimeException e) {
+                Timber.e(e, analyzer.getName() + " failure: " + e.getMessage());
+            } finally {
+                time = System.currentTimeMillis() - time;
+                totalTime += time;
+                maxTime = Math.max(maxTime, time);
+                runs++;
+                pyramid.users.decrementAndGet();
+                pyramid = null;
+                running.set(false);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d runs, %d skipped, %.1fms average, %dms max", analyzer.getName(),
+                    runs, skipped, runs > 0 ? (float) totalTime / runs : 0f, maxTime);
+        }
+
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+/**
+ * Quality measures of one frame of a burst, computed from a small ARGB image.
+ */
+public class FrameScore {
+
+    private static final int MID_GRAY = 118;
+    private static final int HIGHLIGHT = 250;
+    private static final int SHADOW = 5;
+    private static final float CLIPPING_WEIGHT = 2f;
+
+    public int index;
+
+    /**
+     * Variance of luma Laplacian
+     */
+    public float sharpness;
+
+    /**
+     * Mean luma, 0..255
+     */
+    public float exposure;
+
+    /**
+     * Part of pixels with blown highlights, plus half of the part with crushed shadows
+     */
+    public float clipping;
+
+    public float score;
+
+    public FrameScore(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Measures sharpness, exposure and clipping of the image.
+     */
+    public static FrameScore measure(int index, int[] argb, int width, int height) {
+        FrameScore result = new FrameScore(index);
+        int count = width * height;
+        int[] luma = new int[count];
+        long sum = 0;
+        int highlights = 0;
+        int shadows = 0;
+        for (int i = 0; i < count; i++) {
+            int color = argb[i];
+            int y = (77 * ((color >> 16) & 0xFF) + 150 * ((color >> 8) & 0xFF) + 29 * (color & 0xFF)) >> 8;
+            luma[i] = y;
+            sum += y;
+            if (y >= HIGHLIGHT) {
+                highlights++;
+            } else if (y <= SHADOW) {
+                shadows++;
+            }
+        }
+        result.exposure = count > 0 ? (float) sum / count : 0;
+        result.clipping = count > 0 ? (highlights + shadows / 2f) / count : 0;
+
+        long lapSum = 0;
+        long lapSquares = 0;
+        for (int y = 1; y < height - 1; y++) {
+            int row = y * width;
+            for (int x = 1; x < width - 1; x++) {
+                int i = row + x;
+                int laplacian = 4 * luma[i] - luma[i - 1] - luma[i + 1] - luma[i - width] - luma[i + width];
+                lapSum += laplacian;
+                lapSquares += laplacian * laplacian;
+            }
+        }
+        int inner = (width - 2) * (height - 2);
+        if (inner > 0) {
+            float mean = (float) lapSum / inner;
+            result.sharpness = (float) lapSquares / inner - mean * mean;
+        }
+        return result;
+    }
+
+    /**
+     * Combines measures into {@link #score}. Sharpness is relative to the sharpest frame of the burst.
+     */
+    public void rate(float maxSharpness) {
+        float relativeSharpness = maxSharpness > 0 ? sharpness / maxSharpness : 1f;
+        float exposureFactor = Math.max(0f, 1f - Math.abs(exposure - MID_GRAY) / MID_GRAY);
+        float clippingFactor = Math.max(0f, 1f - clipping * CLIPPING_WEIGHT);
+        score = relativeSharpness * (0.5f + 0.5f * exposureFactor) * clippingFactor;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("#%d: score %.3f, sharpness %.0f, exposure %.0f, clipping %.3f",
+                index, score, sharpness, exposure, clipping);
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.yalantis.cameramodule.interfaces.TileSink;
+import com.yalantis.cameramodule.interfaces.TileSource;
+
+/**
+ * Multi-frame noise reduction: frames are aligned by global translation and averaged.
+ */
+public class FrameStacker {
+
+    /**
+     * Shortest side of the coarsest pyramid level used for alignment
+     */
+    public static final int MIN_ALIGN_SIDE = 32;
+
+    /**
+     * Step between compared pixels when matching levels
+     */
+    private static final int MATCH_STEP = 2;
+
+    /**
+     * Bytes per stripe pixel: int sums of three channels, short count, one frame tile and output
+     */
+    private static final int BYTES_PER_PIXEL = 3 * 4 + 2 + 4 + 4;
+
+    /**
+     * Estimates translation of frame against reference, coarse to fine. Frame pixel (x + dx, y + dy) shows
+     * what reference pixel (x, y) shows.
+     *
+     * @param maxShift largest shift to look for, in base level pixels
+     * @return {dx, dy} in base level pixels
+     */
+    public static int[] estimateShift(LumaPyramid reference, LumaPyramid frame, int maxShift) {
+        int top = Math.min(reference.getLevelCount(), frame.getLevelCount()) - 1;
+        int range = (maxShift >> top) + 1;
+        int dx = 0;
+        int dy = 0;
+        for (int level = top; level >= 0; level--) {
+            int[] best = match(reference, frame, level, dx, dy, range);
+            dx = best[0];
+            dy = best[1];
+            if (level > 0) {
+                dx *= 2;
+                dy *= 2;
+                range = 1;
+            }
+        }
+        return new int[] {dx, dy};
+    }
+
+    /**
+     * Searches shifts within range around (dx, dy) for the smallest mean absolute difference.
+     */
+    private static int[] match(LumaPyramid reference, LumaPyramid frame, int level, int dx, int dy, int range) {
+        byte[] ref = reference.getLevel(level);
+        byte[] img = frame.getLevel(level);
+        int width = reference.getWidth(level);
+        int height = reference.getHeight(level);
+        int bestX = dx;
+        int bestY = dy;
+        float bestCost = Float.MAX_VALUE;
+        for (int sy = dy - range; sy <= dy + range; sy++) {
+            for (int sx = dx - range; sx <= dx + range; sx++) {
+                int x0 = Math.max(0, -sx);
+                int x1 = Math.min(width, width - sx);
+                int y0 = Math.max(0, -sy);
+                int y1 = Math.min(height, height - sy);
+                if (x1 - x0 < width / 2 || y1 - y0 < height / 2) {
+                    continue;
+                }
+                long sum = 0;
+                int count = 0;
+                for (int y = y0; y < y1; y += MATCH_STEP) {
+                    int refRow = y * width;
+                    int imgRow = (y + sy) * width + sx;
+                    for (int x = x0; x < x1; x += MATCH_STEP) {
+                        sum += Math.abs((ref[refRow + x] & 0xFF) - (img[imgRow + x] & 0xFF));
+                        count++;
+                    }
+                }
+                float cost = (float) sum / count;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestX = sx;
+                    bestY = sy;
+                }
+            }
+        }
+        return new int[] {bestX, bestY};
+    }
+
+    /**
+     * Rows per stripe such that stripes processed at once on {@link WorkerPool} fit the memory budget
+     */
+    public static int getStripeHeight(long budget, int width) {
+        long rows = budget / WorkerPool.CPU_COUNT / BYTES_PER_PIXEL / width;
+        return (int) Math.max(rows, 1);
+    }
+
+    /**
+     * Averages aligned frames stripe by stripe in parallel on {@link WorkerPool}. Each stripe sums frames one
+     * after another into a single accumulator, so only one frame tile per stripe is in memory.
+     *
+     * @param shifts shift of each frame as returned by {@link #estimateShift}, scaled to width x height, or null to
+     *               leave the frame out. The first frame must not be left out.
+     */
+    public static void stack(final TileSource source, final int[][] shifts, final int width, final int height,
+                             long budget, final TileSink sink) {
+        int stripeHeight = getStripeHeight(budget, width);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int top = 0; top < height; top += stripeHeight) {
+            final int stripeTop = top;
+            final int stripeBottom = Math.min(top + stripeHeight, height);
+            tasks.add(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    stackRegion(source, shifts, width, height, 0, stripeTop, width, stripeBottom, sink);
+                    return null;
+                }
+            });
+        }
+        WorkerPool.invokeAll(tasks);
+    }
+
+    /**
+     * Averaged frames as a {@link TileSource} of width x height, for consumers that pull the result band by band,
+     * such as {@link ParallelJpegEncoder}. The result is never held in full: each read is stacked on the calling
+     * thread in stripes.
+     *
+     * @param shifts as for {@link #stack}
+     * @param readBudget bytes one read may take, reads made at once share the budget of the caller
+     */
+    public static TileSource asTileSource(TileSource source, int[][] shifts, int width, int height,
+                                          long readBudget) {
+        return new StackedSource(source, shifts, width, height, readBudget);
+    }
+
+    private static void stackRegion(TileSource source, int[][] shifts, int width, int height, int left, int top,
+                                    int right, int bottom, TileSink sink) {
+        int columns = right - left;
+        int rows = bottom - top;
+        int[] sums = new int[columns * rows * 3];
+        short[] counts = new short[columns * rows];
+        for (int f = 0; f < shifts.length; f++) {
+            if (shifts[f] == null) {
+                continue;
+            }
+            int dx = shifts[f][0];
+            int dy = shifts[f][1];
+            // part of the region the shifted frame covers
+            int x0 = Math.max(left, -dx);
+            int x1 = Math.min(right, width - dx);
+            int y0 = Math.max(top, -dy);
+            int y1 = Math.min(bottom, height - dy);
+            if (x1 <= x0 || y1 <= y0) {
+                continue;
+            }
+            int w = x1 - x0;
+            int[] tile = source.readTile(f, x0 + dx, y0 + dy, w, y1 - y0);
+            for (int y = y0; y < y1; y++) {
+                int src = (y - y0) * w;
+                int dst = (y - top) * columns + x0 - left;
+                for (int x = 0; x < w; x++) {
+                    int color = tile[src + x];
+                    int i = dst + x;
+                    sums[3 * i] += (color >> 16) & 0xFF;
+                    sums[3 * i + 1] += (color >> 8) & 0xFF;
+                    sums[3 * i + 2] += color & 0xFF;
+                    counts[i]++;
+                }
+            }
+        }
+        int[] out = new int[columns * rows];
+        for (int i = 0; i < out.length; i++) {
+            int count = counts[i];
+            if (count > 0) {
+                int half = count / 2;
+                out[i] = 0xFF000000 | (sums[3 * i] + half) / count << 16 | (sums[3 * i + 1] + half) / count << 8
+                        | (sums[3 * i + 2] + half) / count;
+            }
+        }
+        sink.writeTile(out, 0, columns, left, top, columns, rows);
+    }
+
+    private static class StackedSource implements TileSource {
+
+        private final TileSource source;
+        private final int[][] shifts;
+        private final int width;
+        private final int height;
+        private final long readBudget;
+
+        StackedSource(TileSource source, int[][] shifts, int width, int height, long readBudget) {
+            this.source = source;
+            this.shifts = shifts;
+            this.width = width;
+            this.height = height;
+            this.readBudget = readBudget;
+        }
+
+        @Override
+        public int[] readTile(int frame, final int left, final int top, final int width, int height) {
+            final int[] out = new int[width * height];
+            TileSink sink = new TileSink() {
+
+                @Override
+                public void writeTile(int[] pixels, int offset, int stride, int tileLeft, int tileTop, int tileWidth,
+                                      int tileHeight) {
+                    for (int y = 0; y < tileHeight; y++) {
+                        System.arraycopy(pixels, offset + y * stride, out,
+                                (tileTop - top + y) * width + tileLeft - left, tileWidth);
+                    }
+                }
+            };
+            int rows = (int) Math.max(readBudget / BYTES_PER_PIXEL / width, 1);
+            for (int y = 0; y < height; y += rows) {
+                stackRegion(source, shifts, this.width, this.height, left, top + y, left + width,
+                        top + Math.min(y + rows, height), sink);
+            }
+            return out;
+        }
+
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import timber.log.Timber;
+import android.os.AsyncTask;
+
+import com.yalantis.cameramodule.CameraConst;
+import com.yalantis.cameramodule.interfaces.PhotoTakenCallback;
+
+/**
+ * Merges an exposure bracket with {@link ExposureFusion} and passes the result to the callback as JPEG. Frames are
+ * read tile by tile by {@link RegionTileSource} and {@link ParallelJpegEncoder} pulls the fused result band by band,
+ * so nothing is held at full size and the picture keeps its resolution.
+ */
+public class HdrMergeTask extends AsyncTask<Void, Void, byte[]> {
+
+    /**
+     * Part of the heap given to bands in flight
+     */
+    private static final int TILE_HEAP_DIVIDER = 8;
+
+    private List<byte[]> frames;
+    private int orientation;
+    private PhotoTakenCallback callback;
+
+    /**
+     * @param frames JPEG bracket, the first one is the normal exposure
+     */
+    public HdrMergeTask(List<byte[]> frames, int orientation, PhotoTakenCallback callback) {
+        this.frames = frames;
+        this.orientation = orientation;
+        this.callback = callback;
+    }
+
+    @Override
+    protected byte[] doInBackground(Void... params) {
+        long time = System.currentTimeMillis();
+        RegionTileSource source = null;
+        try {
+            source = new RegionTileSource(frames, false);
+            int width = source.getWidth();
+            int height = source.getHeight();
+            long readBudget = Runtime.getRuntime().maxMemory() / TILE_HEAP_DIVIDER
+                    / ParallelJpegEncoder.getBandsInFlight();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(frames.get(0).length);
+            ParallelJpegEncoder.encode(ExposureFusion.asTileSource(source, frames.size(), width, height, readBudget),
+                    0, width, height, CameraConst.COMPRESS_QUALITY, bos);
+            Timber.d("HDR merge %1dx%2d: %3dms", width, height, System.currentTimeMillis() - time);
+            return bos.toByteArray();
+        } catch (IOException e) {
+            Timber.e(e, "HDR merge failure: " + e.getMessage());
+            return frames.get(0);
+        } finally {
+            if (source != null) {
+                source.recycle();
+            }
+        }
+    }
+
+    @Override
+    protected void onPostExecute(byte[] data) {
+        frames = null;
+        callback.photoTaken(data, orientation);
+    }
+
+}
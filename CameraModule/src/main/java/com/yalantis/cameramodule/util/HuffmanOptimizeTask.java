@@ -0,0 +1,58 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.io.File;
+import java.io.IOException;
+
+import timber.log.Timber;
+import android.os.AsyncTask;
+
+/**
+ * Re-packs a saved JPEG with optimal Huffman tables, see {@link HuffmanOptimizer}. Run it on
+ * {@link AsyncTask#THREAD_POOL_EXECUTOR}, so it does not hold up saving of the next photo.
+ */
+public class HuffmanOptimizeTask extends AsyncTask<Void, Void, Void> {
+
+    private File file;
+
+    public HuffmanOptimizeTask(File file) {
+        this.file = file;
+    }
+
+    @Override
+    protected Void doInBackground(Void... params) {
+        long time = System.currentTimeMillis();
+        long length = file.length();
+        try {
+            long saved = HuffmanOptimizer.optimize(file);
+            Timber.d("optimize %1s: %2d of %3d bytes saved, %4dms", file.getName(), saved, length,
+                    System.currentTimeMillis() - time);
+        } catch (IOException e) {
+            Timber.e(e, "JPEG optimization failure: " + e.getMessage());
+        }
+        return null;
+    }
+
+}
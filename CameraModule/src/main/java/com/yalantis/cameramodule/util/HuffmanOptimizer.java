@@ -0,0 +1,789 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Re-packs a baseline JPEG with Huffman tables built for its own symbol statistics. Entropy coded data is decoded
+ * to Huffman symbols and their extra bits only, so DCT coefficients stay exactly the same. The file is streamed
+ * twice, first to count symbols and then to write the new file, so memory use does not depend on image size.
+ * <p/>
+ * Progressive, arithmetic coded, 12 bit and multi-scan files are left as they are.
+ */
+public final class HuffmanOptimizer {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final int SOF0 = 0xC0;
+    private static final int SOF1 = 0xC1;
+    private static final int DHT = 0xC4;
+    private static final int RST0 = 0xD0;
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int DRI = 0xDD;
+
+    private HuffmanOptimizer() {
+    }
+
+    /**
+     * Replaces the file with the re-packed one if it is smaller and the file did not change meanwhile.
+     *
+     * @return bytes saved, 0 if the file was left as is
+     */
+    public static long optimize(File file) throws IOException {
+        long length = file.length();
+        long modified = file.lastModified();
+        Model model;
+        InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            model = analyze(in);
+        } finally {
+            in.close();
+        }
+        if (model == null) {
+            return 0;
+        }
+        // unique name, other tasks may be rewriting the same file
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        boolean replaced = false;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE);
+            try {
+                write(in, out, model);
+            } finally {
+                in.close();
+                out.close();
+            }
+            long saved = length - temp.length();
+            if (saved <= 0 || file.length() != length || file.lastModified() != modified) {
+                return 0;
+            }
+            replaced = temp.renameTo(file);
+            return replaced ? saved : 0;
+        } finally {
+            if (!replaced) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Counts Huffman symbols of the only scan.
+     *
+     * @return null if the file is not a single scan baseline JPEG
+     */
+    static Model analyze(InputStream in) throws IOException {
+        if (readMarker(in) != SOI) {
+            return null;
+        }
+        Model model = new Model();
+        while (true) {
+            int marker = readMarker(in);
+            if (marker == SOF0 || marker == SOF1) {
+                if (!model.readFrame(in)) {
+                    return null;
+                }
+            } else if (isUnsupportedFrame(marker) || marker == EOI) {
+                return null;
+            } else if (marker == DHT) {
+                model.readTables(in);
+            } else if (marker == DRI) {
+                readLength(in);
+                model.restartInterval = readShort(in);
+            } else if (marker == SOS) {
+                if (model.components == null || !model.readScan(in)) {
+                    return null;
+                }
+                int next = new ScanCoder(model, new BitReader(in), null).run();
+                // tables are counted, a second scan would need its own
+                return next == EOI ? model : null;
+            } else {
+                skip(in, readLength(in));
+            }
+        }
+    }
+
+    /**
+     * Copies the file with the original tables dropped and optimal ones written before the scan.
+     */
+    static void write(InputStream in, OutputStream out, Model model) throws IOException {
+        readMarker(in);
+        writeMarker(out, SOI);
+        while (true) {
+            int marker = readMarker(in);
+            int length = readLength(in);
+            if (marker == DHT) {
+                skip(in, length);
+                continue;
+            }
+            if (marker == SOS) {
+                model.writeTables(out);
+            }
+            writeMarker(out, marker);
+            writeShort(out, length + 2);
+            copy(in, out, length);
+            if (marker == SOS) {
+                BitWriter writer = new BitWriter(out);
+                int next = new ScanCoder(model, new BitReader(in), writer).run();
+                writeMarker(out, next);
+                // anything after the image, as is
+                copy(in, out, Long.MAX_VALUE);
+                return;
+            }
+        }
+    }
+
+    private static boolean isUnsupportedFrame(int marker) {
+        return marker >= 0xC2 && marker <= 0xCF && marker != DHT && marker != 0xC8 && marker != 0xCC;
+    }
+
+    static class Model {
+
+        int width;
+        int height;
+        int[] components;
+        int[] h;
+        int[] v;
+        int maxH;
+        int maxV;
+        int restartInterval;
+
+        HuffmanTable[] dcTables = new HuffmanTable[4];
+        HuffmanTable[] acTables = new HuffmanTable[4];
+        int[][] dcCounts = new int[4][257];
+        int[][] acCounts = new int[4][257];
+
+        /**
+         * Scan components as indices into the frame components, with their table ids
+         */
+        int[] scanComponents;
+        int[] scanDc;
+        int[] scanAc;
+
+        int[][] dcCodes = new int[4][];
+        int[][] dcSizes = new int[4][];
+        int[][] acCodes = new int[4][];
+        int[][] acSizes = new int[4][];
+
+        boolean readFrame(InputStream in) throws IOException {
+            int length = readLength(in);
+            int precision = readByte(in);
+            height = readShort(in);
+            width = readShort(in);
+            int count = readByte(in);
+            if (precision != 8 || height == 0 || width == 0 || count == 0 || length != 6 + 3 * count) {
+                return false;
+            }
+            components = new int[count];
+            h = new int[count];
+            v = new int[count];
+            for (int i = 0; i < count; i++) {
+                components[i] = readByte(in);
+                int sampling = readByte(in);
+                h[i] = sampling >> 4;
+                v[i] = sampling & 15;
+                readByte(in);
+                if (h[i] < 1 || h[i] > 4 || v[i] < 1 || v[i] > 4) {
+                    return false;
+                }
+                maxH = Math.max(maxH, h[i]);
+                maxV = Math.max(maxV, v[i]);
+            }
+            return true;
+        }
+
+        void readTables(InputStream in) throws IOException {
+            int length = readLength(in);
+            while (length > 0) {
+                int info = readByte(in);
+                int[] bits = new int[17];
+                int total = 0;
+                for (int i = 1; i <= 16; i++) {
+                    bits[i] = readByte(in);
+                    total += bits[i];
+                }
+                if (total > 256 || (info & 15) > 3) {
+                    throw new IOException("Bad Huffman table");
+                }
+                int[] values = new int[total];
+                for (int i = 0; i < total; i++) {
+                    values[i] = readByte(in);
+                }
+                HuffmanTable table = new HuffmanTable(bits, values);
+                if (info >> 4 == 0) {
+                    dcTables[info & 15] = table;
+                } else {
+                    acTables[info & 15] = table;
+                }
+                length -= 17 + total;
+            }
+        }
+
+        boolean readScan(InputStream in) throws IOException {
+            int length = readLength(in);
+            int count = readByte(in);
+            if (count < 1 || count > 4 || length != 4 + 2 * count) {
+                return false;
+            }
+            scanComponents = new int[count];
+            scanDc = new int[count];
+            scanAc = new int[count];
+            for (int i = 0; i < count; i++) {
+                int id = readByte(in);
+                int tables = readByte(in);
+                scanComponents[i] = -1;
+                for (int c = 0; c < components.length; c++) {
+                    if (components[c] == id) {
+                        scanComponents[i] = c;
+                    }
+                }
+                scanDc[i] = tables >> 4;
+                scanAc[i] = tables & 15;
+                if (scanComponents[i] < 0 || scanDc[i] > 3 || scanAc[i] > 3
+                        || dcTables[scanDc[i]] == null || acTables[scanAc[i]] == null) {
+                    return false;
+                }
+            }
+            int start = readByte(in);
+            int end = readByte(in);
+            int approximation = readByte(in);
+            // a single scan has to hold all components to be the whole image
+            return start == 0 && end == 63 && approximation == 0 && count == components.length;
+        }
+
+        /**
+         * Builds the optimal tables from the counts and writes them in one DHT segment.
+         */
+        void writeTables(OutputStream out) throws IOException {
+            boolean[] dcUsed = new boolean[4];
+            boolean[] acUsed = new boolean[4];
+            for (int i = 0; i < scanComponents.length; i++) {
+                dcUsed[scanDc[i]] = true;
+                acUsed[scanAc[i]] = true;
+            }
+            int[][] dcBits = new int[4][];
+            int[][] acBits = new int[4][];
+            int[][] dcValues = new int[4][];
+            int[][] acValues = new int[4][];
+            int length = 2;
+            for (int id = 0; id < 4; id++) {
+                if (dcUsed[id]) {
+                    dcBits[id] = new int[17];
+                    dcValues[id] = buildOptimal(dcCounts[id], dcBits[id]);
+                    dcCodes[id] = new int[256];
+                    dcSizes[id] = new int[256];
+                    assignCodes(dcBits[id], dcValues[id], dcCodes[id], dcSizes[id]);
+                    length += 17 + dcValues[id].length;
+                }
+                if (acUsed[id]) {
+                    acBits[id] = new int[17];
+                    acValues[id] = buildOptimal(acCounts[id], acBits[id]);
+                    acCodes[id] = new int[256];
+                    acSizes[id] = new int[256];
+                    assignCodes(acBits[id], acValues[id], acCodes[id], acSizes[id]);
+                    length += 17 + acValues[id].length;
+                }
+            }
+            writeMarker(out, DHT);
+            writeShort(out, length);
+            for (int id = 0; id < 4; id++) {
+                if (dcUsed[id]) {
+                    writeTable(out, id, dcBits[id], dcValues[id]);
+                }
+                if (acUsed[id]) {
+                    writeTable(out, 0x10 | id, acBits[id], acValues[id]);
+                }
+            }
+        }
+
+        private static void writeTable(OutputStream out, int info, int[] bits, int[] values) throws IOException {
+            out.write(info);
+            for (int i = 1; i <= 16; i++) {
+                out.write(bits[i]);
+            }
+            for (int value : values) {
+                out.write(value);
+            }
+        }
+
+    }
+
+    /**
+     * Code lengths limited to 16 bits, with the all ones code kept free, as in JPEG annex K.2.
+     *
+     * @param bits filled with the number of codes of each length
+     * @return symbols in code order
+     */
+    static int[] buildOptimal(int[] counts, int[] bits) {
+        int[] freq = new int[257];
+        System.arraycopy(counts, 0, freq, 0, 256);
+        freq[256] = 1;
+        int[] codeSize = new int[257];
+        int[] others = new int[257];
+        for (int i = 0; i < 257; i++) {
+            others[i] = -1;
+        }
+        while (true) {
+            int c1 = -1;
+            long least = Long.MAX_VALUE;
+            for (int i = 0; i < 257; i++) {
+                if (freq[i] != 0 && freq[i] <= least) {
+                    least = freq[i];
+                    c1 = i;
+                }
+            }
+            int c2 = -1;
+            least = Long.MAX_VALUE;
+            for (int i = 0; i < 257; i++) {
+                if (freq[i] != 0 && freq[i] <= least && i != c1) {
+                    least = freq[i];
+                    c2 = i;
+                }
+            }
+            if (c2 < 0) {
+                break;
+            }
+            freq[c1] += freq[c2];
+            freq[c2] = 0;
+            codeSize[c1]++;
+            while (others[c1] >= 0) {
+                c1 = others[c1];
+                codeSize[c1]++;
+            }
+            others[c1] = c2;
+            codeSize[c2]++;
+            while (others[c2] >= 0) {
+                c2 = others[c2];
+                codeSize[c2]++;
+            }
+        }
+        int[] lengths = new int[33];
+        for (int i = 0; i < 257; i++) {
+            if (codeSize[i] > 0) {
+                lengths[Math.min(codeSize[i], 32)]++;
+            }
+        }
+        for (int i = 32; i > 16; i--) {
+            while (lengths[i] > 0) {
+                int j = i - 2;
+                while (lengths[j] == 0) {
+                    j--;
+                }
+                lengths[i] -= 2;
+                lengths[i - 1]++;
+                lengths[j + 1] += 2;
+                lengths[j]--;
+            }
+        }
+        int longest = 16;
+        while (lengths[longest] == 0) {
+            longest--;
+        }
+        // the reserved symbol has the longest code
+        lengths[longest]--;
+        int total = 0;
+        for (int i = 1; i <= 16; i++) {
+            bits[i] = lengths[i];
+            total += lengths[i];
+        }
+        int[] values = new int[total];
+        int p = 0;
+        for (int size = 1; size <= 32; size++) {
+            for (int i = 0; i < 256; i++) {
+                if (codeSize[i] == size) {
+                    values[p++] = i;
+                }
+            }
+        }
+        return values;
+    }
+
+    static void assignCodes(int[] bits, int[] values, int[] codes, int[] sizes) {
+        int code = 0;
+        int p = 0;
+        for (int size = 1; size <= 16; size++) {
+            for (int i = 0; i < bits[size]; i++) {
+                codes[values[p]] = code++;
+                sizes[values[p]] = size;
+                p++;
+            }
+            code <<= 1;
+        }
+    }
+
+    /**
+     * Canonical decoding table, with a lookup for codes up to {@link #LOOKUP_BITS} long.
+     */
+    static class HuffmanTable {
+
+        static final int LOOKUP_BITS = 9;
+
+        final int[] values;
+        final int[] lookup = new int[1 << LOOKUP_BITS];
+        final int[] maxCode = new int[17];
+        final int[] offset = new int[17];
+
+        HuffmanTable(int[] bits, int[] values) {
+            this.values = values;
+            int code = 0;
+            int p = 0;
+            for (int size = 1; size <= 16; size++) {
+                offset[size] = p - code;
+                for (int i = 0; i < bits[size]; i++) {
+                    if (size <= LOOKUP_BITS) {
+                        int shift = LOOKUP_BITS - size;
+                        for (int j = 0; j < 1 << shift; j++) {
+                            lookup[(code << shift) | j] = (size << 8) | values[p] | 0x10000;
+                        }
+                    }
+                    code++;
+                    p++;
+                }
+                maxCode[size] = bits[size] > 0 ? code - 1 : -1;
+                code <<= 1;
+            }
+        }
+
+        int decode(BitReader reader) throws IOException {
+            int entry = lookup[reader.peek(LOOKUP_BITS)];
+            if (entry != 0) {
+                reader.skip((entry >> 8) & 0xFF);
+                return entry & 0xFF;
+            }
+            for (int size = LOOKUP_BITS + 1; size <= 16; size++) {
+                int code = reader.peek(size);
+                if (code <= maxCode[size]) {
+                    reader.skip(size);
+                    return values[offset[size] + code];
+                }
+            }
+            throw new IOException("Bad Huffman code");
+        }
+
+    }
+
+    /**
+     * Walks the MCUs of the scan, counting symbols if there is no writer and re-encoding them otherwise.
+     */
+    static class ScanCoder {
+
+        private final Model model;
+        private final BitReader reader;
+        private final BitWriter writer;
+
+        ScanCoder(Model model, BitReader reader, BitWriter writer) {
+            this.model = model;
+            this.reader = reader;
+            this.writer = writer;
+        }
+
+        /**
+         * @return marker that follows the scan
+         */
+        int run() throws IOException {
+            int count = model.scanComponents.length;
+            int mcuCount;
+            int[] blocks = new int[count];
+            if (count == 1) {
+                int c = model.scanComponents[0];
+                int columns = ceil(ceil(model.width * model.h[c], model.maxH), 8);
+                int rows = ceil(ceil(model.height * model.v[c], model.maxV), 8);
+                mcuCount = columns * rows;
+                blocks[0] = 1;
+            } else {
+                mcuCount = ceil(model.width, 8 * model.maxH) * ceil(model.height, 8 * model.maxV);
+                for (int i = 0; i < count; i++) {
+                    int c = model.scanComponents[i];
+                    blocks[i] = model.h[c] * model.v[c];
+                }
+            }
+            int interval = model.restartInterval;
+            for (int mcu = 0; mcu < mcuCount; mcu++) {
+                if (interval > 0 && mcu > 0 && mcu % interval == 0) {
+                    int marker = reader.finish();
+                    if (marker < RST0 || marker > RST0 + 7) {
+                        throw new IOException("Missing restart marker");
+                    }
+                    if (writer != null) {
+                        writer.restart();
+                    }
+                }
+                for (int i = 0; i < count; i++) {
+                    for (int b = 0; b < blocks[i]; b++) {
+                        codeBlock(model.scanDc[i], model.scanAc[i]);
+                    }
+                }
+            }
+            if (writer != null) {
+                writer.flush();
+            }
+            return reader.finish();
+        }
+
+        private void codeBlock(int dc, int ac) throws IOException {
+            int size = model.dcTables[dc].decode(reader);
+            if (size > 11) {
+                throw new IOException("Bad DC difference");
+            }
+            if (writer == null) {
+                model.dcCounts[dc][size]++;
+            } else {
+                writer.write(model.dcCodes[dc][size], model.dcSizes[dc][size]);
+            }
+            copyBits(size);
+            HuffmanTable table = model.acTables[ac];
+            for (int k = 1; k < 64; k++) {
+                int symbol = table.decode(reader);
+                if (writer == null) {
+                    model.acCounts[ac][symbol]++;
+                } else {
+                    writer.write(model.acCodes[ac][symbol], model.acSizes[ac][symbol]);
+                }
+                int run = symbol >> 4;
+                size = symbol & 15;
+                if (size == 0) {
+                    if (run != 15) {
+                        return;
+                    }
+                    k += 15;
+                } else {
+                    k += run;
+                    copyBits(size);
+                }
+                if (k > 63) {
+                    throw new IOException("Coefficient index out of block");
+                }
+            }
+        }
+
+        private void copyBits(int size) throws IOException {
+            if (size == 0) {
+                return;
+            }
+            int bits = reader.peek(size);
+            reader.skip(size);
+            if (writer != null) {
+                writer.write(bits, size);
+            }
+        }
+
+        private static int ceil(int value, int divisor) {
+            return (value + divisor - 1) / divisor;
+        }
+
+    }
+
+    /**
+     * Reads entropy coded data, removing stuffed zero bytes. Past a marker it gives zero bits until
+     * {@link #finish()} is called.
+     */
+    static class BitReader {
+
+        private final InputStream in;
+        private int buffer;
+        private int count;
+        private int marker = -1;
+
+        BitReader(InputStream in) {
+            this.in = in;
+        }
+
+        int peek(int bits) throws IOException {
+            while (count < bits) {
+                buffer = (buffer << 8) | nextByte();
+                count += 8;
+            }
+            return (buffer >>> (count - bits)) & ((1 << bits) - 1);
+        }
+
+        void skip(int bits) {
+            count -= bits;
+        }
+
+        private int nextByte() throws IOException {
+            if (marker >= 0) {
+                return 0;
+            }
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            if (b != 0xFF) {
+                return b;
+            }
+            int next = in.read();
+            while (next == 0xFF) {
+                next = in.read();
+            }
+            if (next == 0) {
+                return 0xFF;
+            }
+            if (next < 0) {
+                throw new EOFException();
+            }
+            marker = next;
+            return 0;
+        }
+
+        /**
+         * Drops padding bits and returns the marker that ends the data, starting over after it.
+         */
+        int finish() throws IOException {
+            while (marker < 0) {
+                nextByte();
+            }
+            int result = marker;
+            marker = -1;
+            buffer = 0;
+            count = 0;
+            return result;
+        }
+
+    }
+
+    static class BitWriter {
+
+        private final OutputStream out;
+        private int buffer;
+        private int count;
+        private int restarts;
+
+        BitWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(int bits, int size) throws IOException {
+            buffer = (buffer << size) | bits;
+            count += size;
+            while (count >= 8) {
+                int b = (buffer >> (count - 8)) & 0xFF;
+                out.write(b);
+                if (b == 0xFF) {
+                    out.write(0);
+                }
+                count -= 8;
+            }
+            buffer &= (1 << count) - 1;
+        }
+
+        /**
+         * Pads the last byte with one bits.
+         */
+        void flush() throws IOException {
+            if (count > 0) {
+                write((1 << (8 - count)) - 1, 8 - count);
+            }
+        }
+
+        void restart() throws IOException {
+            flush();
+            writeMarker(out, RST0 + (restarts++ & 7));
+        }
+
+    }
+
+    private static int readMarker(InputStream in) throws IOException {
+        int b = readByte(in);
+        if (b != 0xFF) {
+            throw new IOException("Marker expected");
+        }
+        while (b == 0xFF) {
+            b = readByte(in);
+        }
+        return b;
+    }
+
+    /**
+     * @return segment length without the length field itself
+     */
+    private static int readLength(InputStream in) throws IOException {
+        int length = readShort(in) - 2;
+        if (length < 0) {
+            throw new IOException("Bad segment length");
+        }
+        return length;
+    }
+
+    private static int readShort(InputStream in) throws IOException {
+        return (readByte(in) << 8) | readByte(in);
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private static void skip(InputStream in, long length) throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                readByte(in);
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, length)];
+        while (length > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if (read < 0) {
+                if (length == Long.MAX_VALUE) {
+                    return;
+                }
+                throw new EOFException();
+            }
+            out.write(buffer, 0, read);
+            if (length != Long.MAX_VALUE) {
+                length -= read;
+            }
+        }
+    }
+
+    private static void writeMarker(OutputStream out, int marker) throws IOException {
+        out.write(0xFF);
+        out.write(marker);
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+import timber.log.Timber;
+import android.graphics.Bitmap;
+
+import com.yalantis.cameramodule.model.OutputFormat;
+
+/**
+ * Encodes bitmaps in an {@link OutputFormat} and keeps bytes written and encode time per format, so formats can be
+ * compared by size and CPU cost.
+ */
+public final class ImageEncoder {
+
+    private static final int FORMAT_COUNT = OutputFormat.values().length;
+
+    private static final int[] counts = new int[FORMAT_COUNT];
+    private static final long[] totalBytes = new long[FORMAT_COUNT];
+    private static final long[] totalTimes = new long[FORMAT_COUNT];
+    private static final long[] totalPixels = new long[FORMAT_COUNT];
+
+    private ImageEncoder() {
+    }
+
+    /**
+     * @return bytes written
+     */
+    public static long encode(Bitmap bitmap, OutputFormat format, int quality, OutputStream out) throws IOException {
+        long time = System.currentTimeMillis();
+        CountingOutputStream counter = new CountingOutputStream(out);
+        if (!bitmap.compress(format.getCompressFormat(), quality, counter)) {
+            throw new IOException(format + " encoding failure");
+        }
+        counter.flush();
+        time = System.currentTimeMillis() - time;
+        record(format, counter.count, time, (long) bitmap.getWidth() * bitmap.getHeight());
+        Timber.d("encode %1s(%2d) %3dx%4d: %5d bytes, %6dms", format, quality, bitmap.getWidth(), bitmap.getHeight(),
+                counter.count, time);
+        return counter.count;
+    }
+
+    /**
+     * Counts an image encoded without a bitmap, such as by {@link ParallelJpegEncoder}, in the report.
+     */
+    public static void record(OutputFormat format, long bytes, long time, long pixels) {
+        synchronized (counts) {
+            int i = format.ordinal();
+            counts[i]++;
+            totalBytes[i] += bytes;
+            totalTimes[i] += time;
+            totalPixels[i] += pixels;
+        }
+    }
+
+    /**
+     * @return bits per pixel and encode speed of each format used so far
+     */
+    public static String getReport() {
+        StringBuilder builder = new StringBuilder();
+        synchronized (counts) {
+            for (OutputFormat format : OutputFormat.values()) {
+                int i = format.ordinal();
+                if (counts[i] == 0) {
+                    continue;
+                }
+                builder.append(String.format(Locale.US, "%s: %d images, %d bytes, %.2f bits per pixel, %.1fms average"
+                                + ", %.1f Mpx/s\n", format, counts[i], totalBytes[i],
+                        8f * totalBytes[i] / totalPixels[i], (float) totalTimes[i] / counts[i],
+                        totalPixels[i] / 1000f / Math.max(1, totalTimes[i])));
+            }
+        }
+        return builder.toString();
+    }
+
+    static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+/**
+ * Luma image with successively halved levels, level 0 is the base image. A pyramid built with
+ * {@link #setNv21(byte[], int, int, int, int)} keeps its arrays and reuses them while the sizes stay the same.
+ */
+public class LumaPyramid {
+
+    private byte[][] levels;
+    private int[] widths;
+    private int[] heights;
+
+    /**
+     * Empty pyramid to be filled with {@link #setNv21(byte[], int, int, int, int)}
+     */
+    public LumaPyramid() {
+    }
+
+    /**
+     * Halves the base until the next level would have a side shorter than minSide.
+     */
+    public LumaPyramid(byte[] base, int width, int height, int minSide) {
+        allocate(width, height, minSide, base);
+        buildLevels();
+    }
+
+    public static LumaPyramid fromArgb(int[] argb, int width, int height, int minSide) {
+        byte[] luma = new byte[width * height];
+        for (int i = 0; i < luma.length; i++) {
+            int color = argb[i];
+            luma[i] = (byte) ((77 * ((color >> 16) & 0xFF) + 150 * ((color >> 8) & 0xFF) + 29 * (color & 0xFF)) >> 8);
+        }
+        return new LumaPyramid(luma, width, height, minSide);
+    }
+
+    /**
+     * Rebuilds the pyramid in place from the Y plane of an NV21 frame. The base level is box-downsampled by 1, 2 or
+     * 4, the most that keeps the longest side at least maxSide.
+     */
+    public void setNv21(byte[] nv21, int frameWidth, int frameHeight, int maxSide, int minSide) {
+        int factor = 1;
+        while (factor < 4 && Math.max(frameWidth, frameHeight) / (factor * 2) >= maxSide) {
+            factor *= 2;
+        }
+        allocate(YuvConverter.getOutputWidth(frameWidth, factor), YuvConverter.getOutputHeight(frameHeight, factor),
+                minSide, null);
+        YuvConverter.convertLuma(nv21, frameWidth, frameHeight, factor, levels[0]);
+        buildLevels();
+    }
+
+    /**
+     * @return smallest level with the longest side of at least size, or the base level
+     */
+    public int getLevelFor(int size) {
+        int level = 0;
+        while (level + 1 < levels.length && Math.max(widths[level + 1], heights[level + 1]) >= size) {
+            level++;
+        }
+        return level;
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public byte[] getLevel(int level) {
+        return levels[level];
+    }
+
+    public int getWidth(int level) {
+        return widths[level];
+    }
+
+    public int getHeight(int level) {
+        return heights[level];
+    }
+
+    /**
+     * @param base level 0 to use, or null to keep or allocate one
+     */
+    private void allocate(int width, int height, int minSide, byte[] base) {
+        int count = 1;
+        for (int w = width, h = height; Math.min(w, h) / 2 >= minSide; w /= 2, h /= 2) {
+            count++;
+        }
+        if (levels == null || levels.length != count || widths[0] != width || heights[0] != height) {
+            levels = new byte[count][];
+            widths = new int[count];
+            heights = new int[count];
+            widths[0] = width;
+            heights[0] = height;
+            for (int i = 1; i < count; i++) {
+                widths[i] = widths[i - 1] / 2;
+                heights[i] = heights[i - 1] / 2;
+                levels[i] = new byte[widths[i] * heights[i]];
+            }
+        }
+        if (base != null) {
+            levels[0] = base;
+        } else if (levels[0] == null) {
+            levels[0] = new byte[width * height];
+        }
+    }
+
+    private void buildLevels() {
+        for (int i = 1; i < levels.length; i++) {
+            halve(levels[i - 1], widths[i - 1], widths[i], heights[i], levels[i]);
+        }
+    }
+
+    private static void halve(byte[] src, int srcWidth, int width, int height, byte[] dst) {
+        for (int y = 0; y < height; y++) {
+            int row = 2 * y * srcWidth;
+            for (int x = 0; x < width; x++) {
+                int i = row + 2 * x;
+                int sum = (src[i] & 0xFF) + (src[i + 1] & 0xFF) + (src[i + srcWidth] & 0xFF)
+                        + (src[i + srcWidth + 1] & 0xFF);
+                dst[y * width + x] = (byte) ((sum + 2) >> 2);
+            }
+        }
+    }
+
+}
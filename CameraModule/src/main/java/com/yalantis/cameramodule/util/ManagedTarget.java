@@ -35,6 +35,7 @@ public class ManagedTarget implements Target {
     private Target target;
     private String path;
     private StorageCallback callback;
+    private boolean delivered;
 
     public ManagedTarget(Target target, String path, StorageCallback callback) {
         this.target = target;
@@ -45,6 +46,7 @@ public class ManagedTarget implements Target {
 
     @Override
     public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from) {
+        delivered = true;
         target.onBitmapLoaded(bitmap, from);
         callback.setBitmap(path, bitmap);
         callback.removeTarget(this);
@@ -52,6 +54,7 @@ public class ManagedTarget implements Target {
 
     @Override
     public void onBitmapFailed(Drawable errorDrawable) {
+        delivered = true;
         target.onBitmapFailed(errorDrawable);
         callback.removeTarget(this);
     }
@@ -61,6 +64,13 @@ public class ManagedTarget implements Target {
         target.onPrepareLoad(placeHolderDrawable);
     }
 
+    /**
+     * @return true if the final bitmap or a failure has already been delivered to the wrapped target
+     */
+    public boolean isDelivered() {
+        return delivered;
+    }
+
     @Override
     public int hashCode() {
         return path.hashCode();
@@ -0,0 +1,488 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import timber.log.Timber;
+import android.graphics.Bitmap;
+
+import com.yalantis.cameramodule.interfaces.TileSource;
+import com.yalantis.cameramodule.model.OutputFormat;
+
+/**
+ * Baseline JPEG encoder that uses all cores. The image is split into bands of MCU rows that are encoded in
+ * parallel on {@link WorkerPool}. Every MCU row is a restart interval, so each band starts with fresh DC predictors
+ * and the band streams simply follow each other. Source rows are read one band at a time, so memory use is a few
+ * bands per core rather than the whole image.
+ * <p/>
+ * Output is YCbCr 4:2:0 with the quantization and Huffman tables of JPEG annex K, scaled by quality as libjpeg does.
+ */
+public final class ParallelJpegEncoder {
+
+    private static final int MCU_SIZE = 16;
+    /**
+     * Pixels per band, the band height is rounded to whole MCU rows
+     */
+    private static final int BAND_PIXELS = 1 << 17;
+    private static final int BATCHES_PER_CORE = 2;
+
+    private static final int RST0 = 0xD0;
+
+    /**
+     * Heap per band pixel: the decoded source strip, its pixels, a stage copy and the band being encoded
+     */
+    private static final int WORKING_BYTES_PER_PIXEL = 16;
+
+    private static final float[] AAN_SCALE = {
+            1.0f, 1.387039845f, 1.306562965f, 1.175875602f, 1.0f, 0.785694958f, 0.541196100f, 0.275899379f
+    };
+
+    /**
+     * Natural order index of each zigzag position
+     */
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    /**
+     * Quantization tables of JPEG annex K, in natural order
+     */
+    private static final int[] LUMINANCE_QUANTIZATION = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99
+    };
+
+    private static final int[] CHROMINANCE_QUANTIZATION = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    /**
+     * Huffman tables of JPEG annex K.3: code counts for lengths 1 to 16 (index 0 unused) and symbols
+     */
+    private static final int[] DC_LUMINANCE_BITS = {
+            0, 0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0
+    };
+    private static final int[] DC_LUMINANCE_VALUES = {
+            0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11
+    };
+    private static final int[] DC_CHROMINANCE_BITS = {
+            0, 0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0
+    };
+    private static final int[] DC_CHROMINANCE_VALUES = {
+            0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11
+    };
+    private static final int[] AC_LUMINANCE_BITS = {
+            0, 0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 125
+    };
+    private static final int[] AC_LUMINANCE_VALUES = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06,
+            0x13, 0x51, 0x61, 0x07, 0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08,
+            0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0, 0x24, 0x33, 0x62, 0x72,
+            0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45,
+            0x46, 0x47, 0x48, 0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59,
+            0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a, 0x73, 0x74, 0x75,
+            0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3,
+            0xa4, 0xa5, 0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6,
+            0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9,
+            0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+            0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4,
+            0xf5, 0xf6, 0xf7, 0xf8, 0xf9, 0xfa
+    };
+    private static final int[] AC_CHROMINANCE_BITS = {
+            0, 0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 119
+    };
+    private static final int[] AC_CHROMINANCE_VALUES = {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41,
+            0x51, 0x07, 0x61, 0x71, 0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91,
+            0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0, 0x15, 0x62, 0x72, 0xd1,
+            0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+            0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44,
+            0x45, 0x46, 0x47, 0x48, 0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58,
+            0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a, 0x73, 0x74,
+            0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+            0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a,
+            0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4,
+            0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5, 0xc6, 0xc7,
+            0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+            0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4,
+            0xf5, 0xf6, 0xf7, 0xf8, 0xf9, 0xfa
+    };
+
+    private ParallelJpegEncoder() {
+    }
+
+    public static void encode(Bitmap bitmap, int quality, OutputStream out) throws IOException {
+        encode(new BitmapTileSource(bitmap), 0, bitmap.getWidth(), bitmap.getHeight(), quality, out);
+    }
+
+    /**
+     * @param source read in full width strips from several threads at once
+     */
+    public static void encode(TileSource source, int frame, int width, int height, int quality, OutputStream out)
+            throws IOException {
+        ImageEncoder.CountingOutputStream counter = new ImageEncoder.CountingOutputStream(out);
+        out = counter;
+        if (width < 1 || height < 1 || width > 0xFFFF || height > 0xFFFF) {
+            throw new IllegalArgumentException("Unsupported size " + width + "x" + height);
+        }
+        long time = System.currentTimeMillis();
+        Tables tables = new Tables(quality);
+        int mcuColumns = (width + MCU_SIZE - 1) / MCU_SIZE;
+        int mcuRows = (height + MCU_SIZE - 1) / MCU_SIZE;
+        int bandRows = Math.max(1, BAND_PIXELS / (MCU_SIZE * MCU_SIZE * mcuColumns));
+        int bandCount = (mcuRows + bandRows - 1) / bandRows;
+        // a few bands in flight per core keeps all of them busy without holding the whole image
+        int batchSize = getBandsInFlight();
+
+        writeHeaders(out, tables, width, height, mcuColumns);
+        List<BandTask> batch = new ArrayList<>(batchSize);
+        for (int band = 0; band < bandCount; band++) {
+            int firstRow = band * bandRows;
+            batch.add(new BandTask(source, frame, width, height, firstRow, Math.min(bandRows, mcuRows - firstRow),
+                    tables));
+            if (batch.size() == batchSize || band == bandCount - 1) {
+                for (byte[] data : WorkerPool.invokeAll(batch)) {
+                    out.write(data);
+                }
+                batch.clear();
+            }
+        }
+        out.write(0xFF);
+        out.write(0xD9);
+        time = System.currentTimeMillis() - time;
+        ImageEncoder.record(OutputFormat.JPEG, counter.getCount(), time, (long) width * height);
+        Timber.d("parallel JPEG %1dx%2d, %3d bands: %4dms", width, height, bandCount, time);
+    }
+
+    /**
+     * @return heap taken by the bands in flight while encoding a picture of any size
+     */
+    public static long getWorkingSetBytes() {
+        return (long) getBandsInFlight() * BAND_PIXELS * WORKING_BYTES_PER_PIXEL;
+    }
+
+    /**
+     * @return most source strips read at once, a source that budgets memory per read divides by it
+     */
+    public static int getBandsInFlight() {
+        return WorkerPool.CPU_COUNT * BATCHES_PER_CORE;
+    }
+
+    private static void writeHeaders(OutputStream out, Tables tables, int width, int height, int restartInterval)
+            throws IOException {
+        writeMarker(out, 0xD8);
+        // JFIF 1.1, no density
+        writeMarker(out, 0xE0);
+        writeShort(out, 16);
+        out.write(new byte[] {'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});
+
+        writeMarker(out, 0xDB);
+        writeShort(out, 2 + 2 * 65);
+        out.write(0);
+        for (int k = 0; k < 64; k++) {
+            out.write(tables.luminance[ZIGZAG[k]]);
+        }
+        out.write(1);
+        for (int k = 0; k < 64; k++) {
+            out.write(tables.chrominance[ZIGZAG[k]]);
+        }
+
+        writeMarker(out, 0xC0);
+        writeShort(out, 8 + 3 * 3);
+        out.write(8);
+        writeShort(out, height);
+        writeShort(out, width);
+        out.write(3);
+        out.write(new byte[] {1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1});
+
+        writeMarker(out, 0xC4);
+        writeShort(out, 2 + 4 * 17 + DC_LUMINANCE_VALUES.length + AC_LUMINANCE_VALUES.length
+                + DC_CHROMINANCE_VALUES.length + AC_CHROMINANCE_VALUES.length);
+        writeTable(out, 0x00, DC_LUMINANCE_BITS, DC_LUMINANCE_VALUES);
+        writeTable(out, 0x10, AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES);
+        writeTable(out, 0x01, DC_CHROMINANCE_BITS, DC_CHROMINANCE_VALUES);
+        writeTable(out, 0x11, AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES);
+
+        writeMarker(out, 0xDD);
+        writeShort(out, 4);
+        writeShort(out, restartInterval);
+
+        writeMarker(out, 0xDA);
+        writeShort(out, 6 + 2 * 3);
+        out.write(new byte[] {3, 1, 0x00, 2, 0x11, 3, 0x11, 0, 63, 0});
+    }
+
+    private static void writeTable(OutputStream out, int info, int[] bits, int[] values) throws IOException {
+        out.write(info);
+        for (int i = 1; i <= 16; i++) {
+            out.write(bits[i]);
+        }
+        for (int value : values) {
+            out.write(value);
+        }
+    }
+
+    private static void writeMarker(OutputStream out, int marker) throws IOException {
+        out.write(0xFF);
+        out.write(marker);
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    /**
+     * Quantization tables for the quality with their FDCT scaled reciprocals, and Huffman codes. Shared by the
+     * bands, read only.
+     */
+    private static class Tables {
+
+        final int[] luminance = new int[64];
+        final int[] chrominance = new int[64];
+        final float[] luminanceDivisors = new float[64];
+        final float[] chrominanceDivisors = new float[64];
+
+        final int[][] codes = new int[4][256];
+        final int[][] sizes = new int[4][256];
+
+        Tables(int quality) {
+            quality = Math.max(1, Math.min(100, quality));
+            int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+            for (int i = 0; i < 64; i++) {
+                luminance[i] = Math.max(1, Math.min(255, (LUMINANCE_QUANTIZATION[i] * scale + 50) / 100));
+                chrominance[i] = Math.max(1, Math.min(255, (CHROMINANCE_QUANTIZATION[i] * scale + 50) / 100));
+                float aan = AAN_SCALE[i >> 3] * AAN_SCALE[i & 7] * 8;
+                luminanceDivisors[i] = 1f / (luminance[i] * aan);
+                chrominanceDivisors[i] = 1f / (chrominance[i] * aan);
+            }
+            HuffmanOptimizer.assignCodes(DC_LUMINANCE_BITS, DC_LUMINANCE_VALUES, codes[0], sizes[0]);
+            HuffmanOptimizer.assignCodes(AC_LUMINANCE_BITS, AC_LUMINANCE_VALUES, codes[1], sizes[1]);
+            HuffmanOptimizer.assignCodes(DC_CHROMINANCE_BITS, DC_CHROMINANCE_VALUES, codes[2], sizes[2]);
+            HuffmanOptimizer.assignCodes(AC_CHROMINANCE_BITS, AC_CHROMINANCE_VALUES, codes[3], sizes[3]);
+        }
+
+    }
+
+    private static class BandTask implements Callable<byte[]> {
+
+        private final TileSource source;
+        private final int frame;
+        private final int width;
+        private final int height;
+        private final int firstRow;
+        private final int rows;
+        private final Tables tables;
+
+        private final float[][] luma = new float[4][64];
+        private final float[] cb = new float[64];
+        private final float[] cr = new float[64];
+        private final int[] quantized = new int[64];
+        private HuffmanOptimizer.BitWriter writer;
+
+        BandTask(TileSource source, int frame, int width, int height, int firstRow, int rows, Tables tables) {
+            this.source = source;
+            this.frame = frame;
+            this.width = width;
+            this.height = height;
+            this.firstRow = firstRow;
+            this.rows = rows;
+            this.tables = tables;
+        }
+
+        @Override
+        public byte[] call() throws IOException {
+            int top = firstRow * MCU_SIZE;
+            int stripHeight = Math.min(rows * MCU_SIZE, height - top);
+            int[] pixels = source.readTile(frame, 0, top, width, stripHeight);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(width * stripHeight / 4);
+            writer = new HuffmanOptimizer.BitWriter(bos);
+            int columns = (width + MCU_SIZE - 1) / MCU_SIZE;
+            for (int r = 0; r < rows; r++) {
+                int row = firstRow + r;
+                if (row > 0) {
+                    writer.flush();
+                    bos.write(0xFF);
+                    bos.write(RST0 + ((row - 1) & 7));
+                }
+                int dcY = 0;
+                int dcCb = 0;
+                int dcCr = 0;
+                for (int column = 0; column < columns; column++) {
+                    loadMcu(pixels, stripHeight, column * MCU_SIZE, r * MCU_SIZE);
+                    for (int b = 0; b < 4; b++) {
+                        dcY = encodeBlock(luma[b], tables.luminanceDivisors, dcY, 0, 1);
+                    }
+                    dcCb = encodeBlock(cb, tables.chrominanceDivisors, dcCb, 2, 3);
+                    dcCr = encodeBlock(cr, tables.chrominanceDivisors, dcCr, 2, 3);
+                }
+            }
+            writer.flush();
+            return bos.toByteArray();
+        }
+
+        /**
+         * Converts a 16x16 area to level shifted YCbCr, edge pixels repeat past the image border.
+         */
+        private void loadMcu(int[] pixels, int stripHeight, int left, int top) {
+            for (int i = 0; i < 64; i++) {
+                cb[i] = 0;
+                cr[i] = 0;
+            }
+            for (int y = 0; y < MCU_SIZE; y++) {
+                int offset = Math.min(top + y, stripHeight - 1) * width;
+                float[] block = luma[(y >> 3) << 1];
+                int chroma = (y >> 1) << 3;
+                for (int x = 0; x < MCU_SIZE; x++) {
+                    int color = pixels[offset + Math.min(left + x, width - 1)];
+                    int red = (color >> 16) & 0xFF;
+                    int green = (color >> 8) & 0xFF;
+                    int blue = color & 0xFF;
+                    float[] target = x < 8 ? block : luma[((y >> 3) << 1) + 1];
+                    target[((y & 7) << 3) | (x & 7)] = 0.299f * red + 0.587f * green + 0.114f * blue - 128;
+                    cb[chroma + (x >> 1)] += 0.25f * (-0.168736f * red - 0.331264f * green + 0.5f * blue);
+                    cr[chroma + (x >> 1)] += 0.25f * (0.5f * red - 0.418688f * green - 0.081312f * blue);
+                }
+            }
+        }
+
+        /**
+         * @return DC value of the block, the predictor for the next one
+         */
+        private int encodeBlock(float[] block, float[] divisors, int previousDc, int dcTable, int acTable)
+                throws IOException {
+            forwardDct(block);
+            for (int k = 0; k < 64; k++) {
+                int i = ZIGZAG[k];
+                quantized[k] = Math.round(block[i] * divisors[i]);
+            }
+            int dc = quantized[0];
+            int diff = dc - previousDc;
+            int size = bitLength(diff);
+            writer.write(tables.codes[dcTable][size], tables.sizes[dcTable][size]);
+            if (size > 0) {
+                writer.write(diff < 0 ? (diff - 1) & ((1 << size) - 1) : diff, size);
+            }
+            int[] codes = tables.codes[acTable];
+            int[] sizes = tables.sizes[acTable];
+            int run = 0;
+            for (int k = 1; k < 64; k++) {
+                int value = quantized[k];
+                if (value == 0) {
+                    run++;
+                    continue;
+                }
+                while (run > 15) {
+                    writer.write(codes[0xF0], sizes[0xF0]);
+                    run -= 16;
+                }
+                size = bitLength(value);
+                int symbol = (run << 4) | size;
+                writer.write(codes[symbol], sizes[symbol]);
+                writer.write(value < 0 ? (value - 1) & ((1 << size) - 1) : value, size);
+                run = 0;
+            }
+            if (run > 0) {
+                writer.write(codes[0], sizes[0]);
+            }
+            return dc;
+        }
+
+        private static int bitLength(int value) {
+            return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+        }
+
+        /**
+         * Arai-Agui-Nakajima float DCT as in libjpeg jfdctflt.c, output is scaled by {@link #AAN_SCALE}.
+         */
+        private static void forwardDct(float[] data) {
+            for (int pass = 0; pass < 2; pass++) {
+                // rows, then columns
+                int step = pass == 0 ? 1 : 8;
+                int next = pass == 0 ? 8 : 1;
+                for (int line = 0; line < 8; line++) {
+                    int p = line * next;
+                    float tmp0 = data[p] + data[p + 7 * step];
+                    float tmp7 = data[p] - data[p + 7 * step];
+                    float tmp1 = data[p + step] + data[p + 6 * step];
+                    float tmp6 = data[p + step] - data[p + 6 * step];
+                    float tmp2 = data[p + 2 * step] + data[p + 5 * step];
+                    float tmp5 = data[p + 2 * step] - data[p + 5 * step];
+                    float tmp3 = data[p + 3 * step] + data[p + 4 * step];
+                    float tmp4 = data[p + 3 * step] - data[p + 4 * step];
+
+                    float tmp10 = tmp0 + tmp3;
+                    float tmp13 = tmp0 - tmp3;
+                    float tmp11 = tmp1 + tmp2;
+                    float tmp12 = tmp1 - tmp2;
+                    data[p] = tmp10 + tmp11;
+                    data[p + 4 * step] = tmp10 - tmp11;
+                    float z1 = (tmp12 + tmp13) * 0.707106781f;
+                    data[p + 2 * step] = tmp13 + z1;
+                    data[p + 6 * step] = tmp13 - z1;
+
+                    tmp10 = tmp4 + tmp5;
+                    tmp11 = tmp5 + tmp6;
+                    tmp12 = tmp6 + tmp7;
+                    float z5 = (tmp10 - tmp12) * 0.382683433f;
+                    float z2 = 0.541196100f * tmp10 + z5;
+                    float z4 = 1.306562965f * tmp12 + z5;
+                    float z3 = tmp11 * 0.707106781f;
+                    float z11 = tmp7 + z3;
+                    float z13 = tmp7 - z3;
+                    data[p + 5 * step] = z13 + z2;
+                    data[p + 3 * step] = z13 - z2;
+                    data[p + step] = z11 + z4;
+                    data[p + 7 * step] = z11 - z4;
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.yalantis.cameramodule.interfaces.TileSink;
+import com.yalantis.cameramodule.interfaces.TileSource;
+
+/**
+ * Maps a quadrilateral of the source onto an upright rectangle. Each output pixel is mapped back into the source
+ * and sampled bilinearly. Output tiles are processed in parallel on {@link WorkerPool}. Each tile reads only the
+ * bounding box of its image in the source.
+ */
+public class PerspectiveWarp {
+
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * Projective map of the unit square onto the quadrilateral (Heckbert): corner (0, 0) goes to top-left,
+     * (1, 0) to top-right, (1, 1) to bottom-right and (0, 1) to bottom-left.
+     *
+     * @param quad corners as x, y pairs in that order
+     * @return {a, b, c, d, e, f, g, h}: x = (a u + b v + c) / w, y = (d u + e v + f) / w, w = g u + h v + 1
+     */
+    public static float[] squareToQuad(float[] quad) {
+        float x0 = quad[0], y0 = quad[1], x1 = quad[2], y1 = quad[3];
+        float x2 = quad[4], y2 = quad[5], x3 = quad[6], y3 = quad[7];
+        float sx = x0 - x1 + x2 - x3;
+        float sy = y0 - y1 + y2 - y3;
+        float g = 0;
+        float h = 0;
+        if (Math.abs(sx) > 1e-6f || Math.abs(sy) > 1e-6f) {
+            float dx1 = x1 - x2;
+            float dx2 = x3 - x2;
+            float dy1 = y1 - y2;
+            float dy2 = y3 - y2;
+            float den = dx1 * dy2 - dx2 * dy1;
+            g = (sx * dy2 - dx2 * sy) / den;
+            h = (dx1 * sy - sx * dy1) / den;
+        }
+        return new float[] {x1 - x0 + g * x1, x3 - x0 + h * x3, x0, y1 - y0 + g * y1, y3 - y0 + h * y3, y0, g, h};
+    }
+
+    /**
+     * Warps the quadrilateral of a sourceWidth x sourceHeight frame into width x height output.
+     *
+     * @param quad corners top-left, top-right, bottom-right, bottom-left in source pixels
+     */
+    public static void warp(final TileSource source, final int frame, final int sourceWidth, final int sourceHeight,
+                            float[] quad, final int width, final int height, final TileSink sink) {
+        final float[] map = squareToQuad(quad);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int top = 0; top < height; top += TILE_SIZE) {
+            for (int left = 0; left < width; left += TILE_SIZE) {
+                final int tileLeft = left;
+                final int tileTop = top;
+                tasks.add(new Callable<Void>() {
+
+                    @Override
+                    public Void call() {
+                        warpTile(source, frame, sourceWidth, sourceHeight, map, width, height, tileLeft, tileTop,
+                                sink);
+                        return null;
+                    }
+                });
+            }
+        }
+        WorkerPool.invokeAll(tasks);
+    }
+
+    private static void warpTile(TileSource source, int frame, int sourceWidth, int sourceHeight, float[] map,
+                                 int width, int height, int left, int top, TileSink sink) {
+        int tileWidth = Math.min(TILE_SIZE, width - left);
+        int tileHeight = Math.min(TILE_SIZE, height - top);
+
+        // a projective map keeps lines straight, so the tile corners bound its image
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        float[] point = new float[2];
+        for (int corner = 0; corner < 4; corner++) {
+            int x = corner == 1 || corner == 2 ? left + tileWidth : left;
+            int y = corner >= 2 ? top + tileHeight : top;
+            project(map, (float) x / width, (float) y / height, point);
+            minX = Math.min(minX, point[0]);
+            minY = Math.min(minY, point[1]);
+            maxX = Math.max(maxX, point[0]);
+            maxY = Math.max(maxY, point[1]);
+        }
+        int regionLeft = clamp((int) Math.floor(minX) - 1, 0, sourceWidth - 1);
+        int regionTop = clamp((int) Math.floor(minY) - 1, 0, sourceHeight - 1);
+        int regionRight = clamp((int) Math.ceil(maxX) + 2, regionLeft + 1, sourceWidth);
+        int regionBottom = clamp((int) Math.ceil(maxY) + 2, regionTop + 1, sourceHeight);
+        int regionWidth = regionRight - regionLeft;
+        int regionHeight = regionBottom - regionTop;
+        int[] region = source.readTile(frame, regionLeft, regionTop, regionWidth, regionHeight);
+
+        int[] out = new int[tileWidth * tileHeight];
+        for (int y = 0; y < tileHeight; y++) {
+            float v = (top + y + 0.5f) / height;
+            for (int x = 0; x < tileWidth; x++) {
+                project(map, (left + x + 0.5f) / width, v, point);
+                out[y * tileWidth + x] = sample(region, regionWidth, regionHeight,
+                        point[0] - 0.5f - regionLeft, point[1] - 0.5f - regionTop);
+            }
+        }
+        sink.writeTile(out, 0, tileWidth, left, top, tileWidth, tileHeight);
+    }
+
+    private static void project(float[] map, float u, float v, float[] point) {
+        float w = map[6] * u + map[7] * v + 1;
+        point[0] = (map[0] * u + map[1] * v + map[2]) / w;
+        point[1] = (map[3] * u + map[4] * v + map[5]) / w;
+    }
+
+    static int sample(int[] pixels, int width, int height, float x, float y) {
+        x = Math.max(0, Math.min(x, width - 1));
+        y = Math.max(0, Math.min(y, height - 1));
+        int x0 = (int) x;
+        int y0 = (int) y;
+        int x1 = Math.min(x0 + 1, width - 1);
+        int y1 = Math.min(y0 + 1, height - 1);
+        int fx = (int) ((x - x0) * 256);
+        int fy = (int) ((y - y0) * 256);
+        int c00 = pixels[y0 * width + x0];
+        int c10 = pixels[y0 * width + x1];
+        int c01 = pixels[y1 * width + x0];
+        int c11 = pixels[y1 * width + x1];
+        int result = 0xFF000000;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int top = ((c00 >> shift) & 0xFF) * (256 - fx) + ((c10 >> shift) & 0xFF) * fx;
+            int bottom = ((c01 >> shift) & 0xFF) * (256 - fx) + ((c11 >> shift) & 0xFF) * fx;
+            result |= ((top * (256 - fy) + bottom * fy + (1 << 15)) >> 16) << shift;
+        }
+        return result;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return value < min ? min : value > max ? max : value;
+    }
+
+}
@@ -24,6 +24,9 @@
 package com.yalantis.cameramodule.util;
 
 import java.io.File;
+import java.util.List;
+
+import com.yalantis.cameramodule.model.Rendition;
 
 public class PhotoUtil {
 
@@ -32,4 +35,9 @@ public class PhotoUtil {
         file.delete();
     }
 
+    public static void deletePhoto(String path, List<Rendition> renditions) {
+        deletePhoto(path);
+        RenditionWriter.delete(new File(path), renditions);
+    }
+
 }
@@ -0,0 +1,201 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import android.hardware.Camera;
+import android.os.StatFs;
+
+import com.yalantis.cameramodule.model.Quality;
+import com.yalantis.cameramodule.model.Ratio;
+
+/**
+ * Picks picture size for a {@link Quality} by its target pixel count, limited by memory the save path needs
+ * and by free storage.
+ * <p/>
+ * Rotating save path holds the JPEG, the decoded ARGB bitmap, its rotated copy and the encoded result at once,
+ * so a size is rejected if that does not fit into the heap budget. When photos are saved through
+ * {@link StripPipeline} there are no full size bitmaps, only the JPEG, the result and the strips in flight. A size
+ * is also rejected if the expected JPEG and its renditions do not fit into the storage budget.
+ */
+public class PictureSizeSelector {
+
+    private static final int ARGB_BYTES_PER_PIXEL = 4;
+
+    /**
+     * Typical camera JPEG size per pixel at high quality
+     */
+    private static final float JPEG_BYTES_PER_PIXEL = 0.4f;
+
+    /**
+     * Part of the free heap the save path may take
+     */
+    private static final float HEAP_FRACTION = 0.6f;
+
+    /**
+     * Sizes within this factor of the target are considered matching it
+     */
+    private static final float TARGET_TOLERANCE = 1.2f;
+
+    /**
+     * Photos that should still fit into the storage budget with renditions
+     */
+    private static final int STORAGE_PHOTOS = 2;
+
+    private long heapBudget;
+    private long storageBudget;
+    private boolean streamingSave;
+
+    private List<String> explanation = new ArrayList<>();
+
+    /**
+     * @param heapBudget    bytes the save path may allocate, see {@link #getHeapBudget()}
+     * @param storageBudget bytes available for photos, see {@link #getStorageBudget(String)}
+     */
+    public PictureSizeSelector(long heapBudget, long storageBudget) {
+        this(heapBudget, storageBudget, false);
+    }
+
+    /**
+     * @param streamingSave true if photos are saved through {@link StripPipeline}, see {@link #getStripHeapBytes}
+     */
+    public PictureSizeSelector(long heapBudget, long storageBudget, boolean streamingSave) {
+        this.heapBudget = heapBudget;
+        this.storageBudget = storageBudget;
+        this.streamingSave = streamingSave;
+    }
+
+    /**
+     * @param sizes supported picture sizes, only sizes of the ratio are considered
+     * @return the biggest size not bigger than the target of quality (the smallest if none is), among sizes
+     * that fit the budgets; the smallest size of the ratio if nothing fits; null if there are no sizes of the ratio
+     */
+    public Camera.Size select(List<Camera.Size> sizes, Ratio ratio, Quality quality) {
+        long target = quality.getTargetPixels() > 0 ? (long) (quality.getTargetPixels() * TARGET_TOLERANCE) : Long.MAX_VALUE;
+        explanation.add(String.format(Locale.US, "%s %s: target %d px, heap %d KB%s, storage %d KB",
+                ratio, quality, quality.getTargetPixels(), heapBudget / 1024, streamingSave ? " (strips)" : "",
+                storageBudget / 1024));
+
+        Camera.Size best = null;
+        Camera.Size smallestFitting = null;
+        Camera.Size smallest = null;
+        for (Camera.Size size : sizes) {
+            if (Ratio.pickRatio(size.width, size.height) != ratio) {
+                continue;
+            }
+            long pixels = pixels(size);
+            long heapBytes = streamingSave ? getStripHeapBytes(pixels) : getHeapBytes(pixels);
+            boolean fitsHeap = heapBytes <= heapBudget;
+            boolean fitsStorage = getJpegBytes(pixels) * STORAGE_PHOTOS <= storageBudget;
+            boolean fitsTarget = pixels <= target;
+            explanation.add(String.format(Locale.US, "  %dx%d: heap %d KB%s, jpeg %d KB%s%s",
+                    size.width, size.height, heapBytes / 1024, fitsHeap ? "" : " (heap)",
+                    getJpegBytes(pixels) / 1024, fitsStorage ? "" : " (storage)", fitsTarget ? "" : " (target)"));
+            if (smallest == null || pixels < pixels(smallest)) {
+                smallest = size;
+            }
+            if (!fitsHeap || !fitsStorage) {
+                continue;
+            }
+            if (smallestFitting == null || pixels < pixels(smallestFitting)) {
+                smallestFitting = size;
+            }
+            if (fitsTarget && (best == null || pixels > pixels(best))) {
+                best = size;
+            }
+        }
+        Camera.Size result = best != null ? best : (smallestFitting != null ? smallestFitting : smallest);
+        if (result != null) {
+            explanation.add(String.format(Locale.US, "  selected %dx%d", result.width, result.height));
+        }
+        return result;
+    }
+
+    /**
+     * @return every considered size with the budget it exceeds, for debugging
+     */
+    public String explain() {
+        StringBuilder builder = new StringBuilder();
+        for (String line : explanation) {
+            builder.append(line).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return peak heap the rotating save path needs for a picture with given pixel count
+     */
+    public static long getHeapBytes(long pixels) {
+        return 2 * pixels * ARGB_BYTES_PER_PIXEL + 2 * getJpegBytes(pixels);
+    }
+
+    /**
+     * @return peak heap the streaming save path needs: the JPEG, the encoded result and the strips in flight
+     */
+    public static long getStripHeapBytes(long pixels) {
+        return 2 * getJpegBytes(pixels) + ParallelJpegEncoder.getWorkingSetBytes();
+    }
+
+    public static long getJpegBytes(long pixels) {
+        return (long) (pixels * JPEG_BYTES_PER_PIXEL);
+    }
+
+    /**
+     * @return part of the heap that is not used yet and may be taken by the save path
+     */
+    public static long getHeapBudget() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return (long) ((runtime.maxMemory() - used) * HEAP_FRACTION);
+    }
+
+    /**
+     * @return free bytes on the storage of the path or its closest existing parent, unlimited if unknown
+     */
+    @SuppressWarnings("deprecation")
+    public static long getStorageBudget(String path) {
+        File dir = path != null ? new File(path) : null;
+        while (dir != null && !dir.exists()) {
+            dir = dir.getParentFile();
+        }
+        if (dir == null) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            StatFs stat = new StatFs(dir.getPath());
+            return (long) stat.getAvailableBlocks() * stat.getBlockSize();
+        } catch (IllegalArgumentException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static long pixels(Camera.Size size) {
+        return (long) size.width * size.height;
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import timber.log.Timber;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.os.AsyncTask;
+
+import com.yalantis.cameramodule.interfaces.ProgressiveTarget;
+import com.yalantis.cameramodule.model.LoadStage;
+import com.yalantis.cameramodule.model.Rendition;
+
+/**
+ * Loads a fast placeholder for a photo: embedded EXIF thumbnail, then smallest rendition, then 1/8 scale decode.
+ */
+public class PlaceholderTask extends AsyncTask<Void, Void, Bitmap> {
+
+    private static final int SUBSAMPLE = 8;
+
+    private File photo;
+    private List<Rendition> renditions;
+    private ManagedTarget managedTarget;
+    private ProgressiveTarget target;
+    private LoadStage stage;
+
+    /**
+     * @param renditions renditions written next to the photo, in any format
+     */
+    public PlaceholderTask(File photo, List<Rendition> renditions, ManagedTarget managedTarget,
+                           ProgressiveTarget target) {
+        this.photo = photo;
+        this.renditions = renditions;
+        this.managedTarget = managedTarget;
+        this.target = target;
+    }
+
+    @Override
+    protected Bitmap doInBackground(Void... params) {
+        long time = System.currentTimeMillis();
+        int orientation = ExifInterface.ORIENTATION_NORMAL;
+        Bitmap bitmap = null;
+        try {
+            ExifInterface exif = new ExifInterface(photo.getAbsolutePath());
+            orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            if (exif.hasThumbnail()) {
+                byte[] thumbnail = exif.getThumbnail();
+                bitmap = BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length);
+                stage = LoadStage.EXIF_THUMBNAIL;
+            }
+        } catch (IOException e) {
+            Timber.e(e, e.getMessage());
+        }
+        if (bitmap == null) {
+            File thumbnail = findSmallestRendition();
+            if (thumbnail != null) {
+                bitmap = BitmapFactory.decodeFile(thumbnail.getAbsolutePath());
+                stage = LoadStage.THUMBNAIL;
+                // renditions are written already rotated
+                orientation = ExifInterface.ORIENTATION_NORMAL;
+            }
+        }
+        if (bitmap == null && !isCancelled()) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = SUBSAMPLE;
+            bitmap = BitmapFactory.decodeFile(photo.getAbsolutePath(), options);
+            stage = LoadStage.SUBSAMPLED;
+        }
+        if (bitmap != null) {
+            bitmap = rotate(bitmap, orientation);
+            Timber.d("placeholder %1s: %2dms", stage, System.currentTimeMillis() - time);
+        }
+        return bitmap;
+    }
+
+    @Override
+    protected void onPostExecute(Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        if (managedTarget.isDelivered()) {
+            bitmap.recycle();
+        } else {
+            target.onPlaceholderLoaded(bitmap, stage);
+        }
+    }
+
+    @Override
+    protected void onCancelled(Bitmap bitmap) {
+        if (bitmap != null) {
+            bitmap.recycle();
+        }
+    }
+
+    private File findSmallestRendition() {
+        File result = null;
+        int resultSide = Integer.MAX_VALUE;
+        for (Rendition rendition : renditions) {
+            if (rendition.maxSide < resultSide) {
+                File file = rendition.getFile(photo);
+                if (file.exists()) {
+                    result = file;
+                    resultSide = rendition.maxSide;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Bitmap rotate(Bitmap bitmap, int orientation) {
+        int angle;
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                angle = 90;
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                angle = 180;
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                angle = 270;
+                break;
+            default:
+                return bitmap;
+        }
+        Matrix matrix = new Matrix();
+        matrix.postRotate(angle);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+
+}
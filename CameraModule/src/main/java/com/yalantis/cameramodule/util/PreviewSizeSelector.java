@@ -0,0 +1,191 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import android.hardware.Camera;
+
+import com.yalantis.cameramodule.model.Ratio;
+
+/**
+ * Picks the cheapest preview size that still looks sharp in the preview container and gives frame analyzers
+ * enough pixels. Sizes are compared in landscape orientation, as the camera reports them.
+ * <p/>
+ * Sizes with aspect ratio out of tolerance are rejected. Every other size is scored, lowest score wins:
+ * <ul>
+ * <li>cost: pixels relative to the required size, which covers the container (allowing a small upscale) and the
+ * analysis size</li>
+ * <li>shortfall: how much the size has to be upscaled to cover the required size, weighted so that a size that
+ * covers wins unless it is far bigger</li>
+ * <li>ratio error relative to tolerance, to break ties between sizes of similar cost</li>
+ * </ul>
+ */
+public class PreviewSizeSelector {
+
+    public static final float DEFAULT_ASPECT_TOLERANCE = Ratio.TOLERANCE;
+
+    public static final int DEFAULT_FPS = 30;
+
+    /**
+     * Upscale factor up to which a preview still looks sharp on the screen
+     */
+    private static final float MAX_UPSCALE = 1.15f;
+
+    /**
+     * Score of each 1% a size falls short of the required size, in required sizes of pixels
+     */
+    private static final float SHORTFALL_WEIGHT = 100;
+
+    private static final float RATIO_WEIGHT = 0.25f;
+
+    private int containerLong;
+    private int containerShort;
+    private float aspectTolerance = DEFAULT_ASPECT_TOLERANCE;
+    private int analysisLong;
+    private int analysisShort;
+    private int targetFps = DEFAULT_FPS;
+
+    private List<String> explanation = new ArrayList<>();
+
+    /**
+     * @param containerWidth  width of the view that shows the preview
+     * @param containerHeight height of the view that shows the preview
+     */
+    public PreviewSizeSelector(int containerWidth, int containerHeight) {
+        this.containerLong = Math.max(containerWidth, containerHeight);
+        this.containerShort = Math.min(containerWidth, containerHeight);
+    }
+
+    public void setAspectTolerance(float aspectTolerance) {
+        this.aspectTolerance = aspectTolerance;
+    }
+
+    /**
+     * Minimal frame size frame analyzers need, zero if there are no analyzers.
+     */
+    public void setAnalysisSize(int width, int height) {
+        this.analysisLong = Math.max(width, height);
+        this.analysisShort = Math.min(width, height);
+    }
+
+    public void setTargetFps(int targetFps) {
+        this.targetFps = targetFps;
+    }
+
+    /**
+     * @return size of the ratio with the lowest score, or null if there are no sizes of the ratio
+     */
+    public Camera.Size select(List<Camera.Size> sizes, Ratio ratio) {
+        int requiredLong = Math.max((int) (containerLong / MAX_UPSCALE), analysisLong);
+        int requiredShort = Math.max((int) (containerShort / MAX_UPSCALE), analysisShort);
+        float requiredPixels = Math.max(requiredLong * requiredShort, 1);
+        explanation.add(String.format(Locale.US, "%s: container %dx%d, analysis %dx%d, required %dx%d",
+                ratio, containerLong, containerShort, analysisLong, analysisShort, requiredLong, requiredShort));
+
+        Camera.Size result = null;
+        float resultScore = Float.MAX_VALUE;
+        for (Camera.Size size : sizes) {
+            float error = ratio.getError(size.width, size.height);
+            if (error > aspectTolerance) {
+                explanation.add(String.format(Locale.US, "  %dx%d: ratio error %.3f, rejected",
+                        size.width, size.height, error));
+                continue;
+            }
+            float cost = size.width * size.height / requiredPixels;
+            float upscale = Math.max((float) requiredLong / Math.max(size.width, size.height),
+                    (float) requiredShort / Math.min(size.width, size.height));
+            float shortfall = Math.max(upscale - 1, 0);
+            float score = cost + shortfall * SHORTFALL_WEIGHT
+                    + (aspectTolerance > 0 ? error / aspectTolerance * RATIO_WEIGHT : 0);
+            explanation.add(String.format(Locale.US,
+                    "  %dx%d: score %.2f (cost %.2f, shortfall %.3f, ratio error %.3f)",
+                    size.width, size.height, score, cost, shortfall, error));
+            if (score < resultScore) {
+                resultScore = score;
+                result = size;
+            }
+        }
+        if (result != null) {
+            explanation.add(String.format(Locale.US, "  selected %dx%d", result.width, result.height));
+        } else {
+            explanation.add("  nothing selected");
+        }
+        return result;
+    }
+
+    /**
+     * Preview FPS ranges do not depend on preview size in this camera API, so the range is picked separately:
+     * the one that reaches target FPS with the lowest max, preferring the lowest min for low light.
+     *
+     * @return range from {@link Camera.Parameters#getSupportedPreviewFpsRange()} or null
+     */
+    public int[] selectFpsRange(List<int[]> ranges) {
+        if (ranges == null) {
+            return null;
+        }
+        int target = targetFps * 1000;
+        int[] result = null;
+        for (int[] range : ranges) {
+            int min = range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+            int max = range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+            if (result == null) {
+                result = range;
+                continue;
+            }
+            int resultMax = result[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+            boolean reaches = max >= target;
+            boolean resultReaches = resultMax >= target;
+            if (reaches != resultReaches) {
+                if (reaches) {
+                    result = range;
+                }
+            } else if (reaches ? max < resultMax : max > resultMax) {
+                result = range;
+            } else if (max == resultMax && min < result[Camera.Parameters.PREVIEW_FPS_MIN_INDEX]) {
+                result = range;
+            }
+        }
+        if (result != null) {
+            explanation.add(String.format(Locale.US, "fps range %d-%d for target %d",
+                    result[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] / 1000,
+                    result[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / 1000, targetFps));
+        }
+        return result;
+    }
+
+    /**
+     * @return score of every considered candidate, or the reason it was rejected, for debugging
+     */
+    public String explain() {
+        StringBuilder builder = new StringBuilder();
+        for (String line : explanation) {
+            builder.append(line).append('\n');
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.io.IOException;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import com.yalantis.cameramodule.interfaces.TileSource;
+
+/**
+ * Reads tiles of same-size JPEG frames with region decoders, so frames are never decoded at full size. If the
+ * picture does not fit the heap budget of the save path, tiles are read subsampled unless full resolution is asked
+ * for, and {@link #getWidth()} and {@link #getHeight()} are smaller than the frames.
+ */
+public class RegionTileSource implements TileSource {
+
+    private BitmapRegionDecoder[] decoders;
+    private int sampleSize;
+    private int width;
+    private int height;
+
+    public RegionTileSource(List<byte[]> frames) throws IOException {
+        this(frames, true);
+    }
+
+    /**
+     * @param subsample false to read full resolution tiles, for consumers that never hold the whole picture
+     */
+    public RegionTileSource(List<byte[]> frames, boolean subsample) throws IOException {
+        decoders = new BitmapRegionDecoder[frames.size()];
+        try {
+            for (int i = 0; i < decoders.length; i++) {
+                byte[] data = frames.get(i);
+                decoders[i] = BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+                if (decoders[i].getWidth() != decoders[0].getWidth()
+                        || decoders[i].getHeight() != decoders[0].getHeight()) {
+                    throw new IOException("Frames differ in size");
+                }
+            }
+        } catch (IOException e) {
+            recycle();
+            throw e;
+        }
+        sampleSize = subsample ? getSampleSize(decoders[0].getWidth(), decoders[0].getHeight()) : 1;
+        width = decoders[0].getWidth() / sampleSize;
+        height = decoders[0].getHeight() / sampleSize;
+    }
+
+    /**
+     * Full resolution tiles of one JPEG file, for {@link StripPipeline}
+     */
+    public RegionTileSource(String path) throws IOException {
+        this(BitmapRegionDecoder.newInstance(path, false));
+    }
+
+    /**
+     * Full resolution tiles of one JPEG, for {@link StripPipeline}
+     */
+    public RegionTileSource(byte[] data) throws IOException {
+        this(BitmapRegionDecoder.newInstance(data, 0, data.length, false));
+    }
+
+    private RegionTileSource(BitmapRegionDecoder decoder) throws IOException {
+        if (decoder == null) {
+            throw new IOException("Unsupported image");
+        }
+        decoders = new BitmapRegionDecoder[] {decoder};
+        sampleSize = 1;
+        width = decoder.getWidth();
+        height = decoder.getHeight();
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Decodes a region given in output coordinates. Decoders are synchronized internally, so tiles of one frame
+     * are decoded one at a time while work on decoded tiles runs in parallel.
+     */
+    @Override
+    public int[] readTile(int frame, int left, int top, int width, int height) {
+        BitmapRegionDecoder decoder = decoders[frame];
+        Rect rect = new Rect(left * sampleSize, top * sampleSize,
+                Math.min((left + width) * sampleSize, decoder.getWidth()),
+                Math.min((top + height) * sampleSize, decoder.getHeight()));
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = decoder.decodeRegion(rect, options);
+        int[] pixels = new int[width * height];
+        if (bitmap == null) {
+            return pixels;
+        }
+        // subsampled regions can come out a pixel short, the missing edge is left black
+        int w = Math.min(width, bitmap.getWidth());
+        int h = Math.min(height, bitmap.getHeight());
+        bitmap.getPixels(pixels, 0, width, 0, 0, w, h);
+        bitmap.recycle();
+        return pixels;
+    }
+
+    public void recycle() {
+        for (BitmapRegionDecoder decoder : decoders) {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+        }
+    }
+
+    /**
+     * Smallest power of two subsampling at which the picture fits the heap budget of the save path
+     */
+    private static int getSampleSize(int width, int height) {
+        long budget = PictureSizeSelector.getHeapBudget();
+        int sampleSize = 1;
+        while (PictureSizeSelector.getHeapBytes((long) width * height / (sampleSize * sampleSize)) > budget) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+}
@@ -0,0 +1,274 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import timber.log.Timber;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.yalantis.cameramodule.model.OutputFormat;
+import com.yalantis.cameramodule.model.OutputPolicy;
+import com.yalantis.cameramodule.model.Rendition;
+
+/**
+ * Writes downscaled renditions of a photo next to the original. Scaling is done on the caller
+ * thread (each rendition is scaled from the previous, bigger one), encoding runs on {@link WorkerPool}.
+ */
+public class RenditionWriter {
+
+    public static final int EXIF_THUMBNAIL_SIZE = 160;
+    private static final int EXIF_THUMBNAIL_QUALITY = 75;
+
+    private File original;
+    private OutputPolicy policy;
+    private OutputFormat photoFormat;
+    private List<Future<Void>> pending = new ArrayList<>();
+    private List<Bitmap> scaled = new ArrayList<>();
+    private Map<String, Bitmap> rendered = new HashMap<>();
+    private Future<byte[]> exifThumbnail;
+
+    public RenditionWriter(File original) {
+        this(original, new OutputPolicy());
+    }
+
+    /**
+     * @param policy quality of each format, renditions without a format of their own take the one of the original
+     */
+    public RenditionWriter(File original, OutputPolicy policy) {
+        this.original = original;
+        this.policy = policy;
+        photoFormat = policy.getFormatFor(original.getPath());
+    }
+
+    /**
+     * Scales source to every rendition and starts encoding them in parallel. Source bitmap is not recycled.
+     */
+    public void start(Bitmap source, List<Rendition> renditions, boolean withExifThumbnail) {
+        long time = System.currentTimeMillis();
+        List<Rendition> sorted = new ArrayList<>(renditions);
+        Collections.sort(sorted, new Comparator<Rendition>() {
+
+            @Override
+            public int compare(Rendition lhs, Rendition rhs) {
+                return rhs.maxSide - lhs.maxSide;
+            }
+        });
+
+        Bitmap current = source;
+        for (Rendition rendition : sorted) {
+            current = scale(current, rendition.maxSide);
+            rendered.put(rendition.name, current);
+            OutputFormat format = rendition.getFormat(photoFormat);
+            pending.add(WorkerPool.submit(new EncodeTask(current, rendition.getFile(original), format,
+                    policy.getQuality(format))));
+        }
+        if (withExifThumbnail) {
+            final Bitmap thumbnail = scale(current, EXIF_THUMBNAIL_SIZE);
+            exifThumbnail = WorkerPool.submit(new Callable<byte[]>() {
+
+                @Override
+                public byte[] call() throws Exception {
+                    return encodeExifThumbnail(thumbnail);
+                }
+            });
+        }
+        Timber.d("renditions scaled: %1dms", System.currentTimeMillis() - time);
+    }
+
+    /**
+     * Takes ownership of the scaled bitmap of the rendition, so it is not recycled on {@link #finish()}.
+     * Returned bitmap may be the source itself if it was already small enough.
+     */
+    public Bitmap retain(String renditionName) {
+        Bitmap bitmap = rendered.get(renditionName);
+        if (bitmap != null) {
+            scaled.remove(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Waits for EXIF thumbnail encoding. Returns null if it was not requested or does not fit into APP1 segment.
+     */
+    public byte[] getExifThumbnail() {
+        if (exifThumbnail == null) {
+            return null;
+        }
+        try {
+            return WorkerPool.await(exifThumbnail);
+        } catch (RuntimeException e) {
+            Timber.e(e, "EXIF thumbnail failure: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Waits for all renditions to be written and releases scaled bitmaps.
+     */
+    public void finish() {
+        long time = System.currentTimeMillis();
+        for (Future<Void> future : pending) {
+            try {
+                WorkerPool.await(future);
+            } catch (RuntimeException e) {
+                Timber.e(e, "Rendition write failure: " + e.getMessage());
+            }
+        }
+        getExifThumbnail();
+        for (Bitmap bitmap : scaled) {
+            bitmap.recycle();
+        }
+        scaled.clear();
+        rendered.clear();
+        pending.clear();
+        Timber.d("renditions written: %1dms", System.currentTimeMillis() - time);
+    }
+
+    private Bitmap scale(Bitmap bitmap, int maxSide) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int side = Math.max(width, height);
+        if (side <= maxSide) {
+            return bitmap;
+        }
+        float ratio = (float) maxSide / side;
+        Bitmap result = Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(width * ratio)), Math.max(1, Math.round(height * ratio)), true);
+        if (result != bitmap) {
+            scaled.add(result);
+        }
+        return result;
+    }
+
+    private static byte[] encodeExifThumbnail(Bitmap thumbnail) {
+        int quality = EXIF_THUMBNAIL_QUALITY;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        thumbnail.compress(Bitmap.CompressFormat.JPEG, quality, bos);
+        while (bos.size() > ExifThumbnailWriter.MAX_THUMBNAIL_BYTES && quality > 20) {
+            quality -= 20;
+            bos.reset();
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, quality, bos);
+        }
+        return bos.size() <= ExifThumbnailWriter.MAX_THUMBNAIL_BYTES ? bos.toByteArray() : null;
+    }
+
+    /**
+     * @return biggest power of two sample size that keeps the longest side not less than maxSide
+     */
+    public static int calculateInSampleSize(BitmapFactory.Options options, int maxSide) {
+        int side = Math.max(options.outWidth, options.outHeight);
+        int sampleSize = 1;
+        while (maxSide > 0 && side / (sampleSize * 2) >= maxSide) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Decodes the file subsampled to the size the renditions need
+     */
+    public static Bitmap decodeFile(String path, List<Rendition> renditions) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options, getMaxSide(renditions));
+        return BitmapFactory.decodeFile(path, options);
+    }
+
+    /**
+     * Decodes the picture subsampled to the size the renditions need
+     */
+    public static Bitmap decodeByteArray(byte[] data, List<Rendition> renditions) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options, getMaxSide(renditions));
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    public static int getMaxSide(List<Rendition> renditions) {
+        int maxSide = EXIF_THUMBNAIL_SIZE;
+        for (Rendition rendition : renditions) {
+            maxSide = Math.max(maxSide, rendition.maxSide);
+        }
+        return maxSide;
+    }
+
+    public static void delete(File original, List<Rendition> renditions) {
+        for (Rendition rendition : renditions) {
+            File file = rendition.getFile(original);
+            if (file.exists()) {
+                file.delete();
+            }
+        }
+    }
+
+    private static class EncodeTask implements Callable<Void> {
+
+        private Bitmap bitmap;
+        private File file;
+        private OutputFormat format;
+        private int quality;
+
+        EncodeTask(Bitmap bitmap, File file, OutputFormat format, int quality) {
+            this.bitmap = bitmap;
+            this.file = file;
+            this.format = format;
+            this.quality = quality;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            long time = System.currentTimeMillis();
+            FileOutputStream fos = null;
+            try {
+                fos = new FileOutputStream(file);
+                ImageEncoder.encode(bitmap, format, quality, fos);
+            } finally {
+                if (fos != null) {
+                    fos.close();
+                }
+            }
+            Timber.d("rendition %1s: %2dms", file.getName(), System.currentTimeMillis() - time);
+            return null;
+        }
+
+    }
+
+}
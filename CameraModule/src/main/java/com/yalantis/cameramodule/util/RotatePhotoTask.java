@@ -27,6 +27,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.List;
 
 import timber.log.Timber;
 import android.graphics.Bitmap;
@@ -34,35 +35,92 @@ import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
 import android.os.AsyncTask;
 
-import com.yalantis.cameramodule.CameraConst;
 import com.yalantis.cameramodule.interfaces.PhotoSavedListener;
+import com.yalantis.cameramodule.model.OutputFormat;
+import com.yalantis.cameramodule.model.OutputPolicy;
+import com.yalantis.cameramodule.model.Rendition;
 
 public class RotatePhotoTask extends AsyncTask<Void, Void, Void> {
 
     private String path;
     private float angle;
+    private List<Rendition> renditions;
     private PhotoSavedListener callback;
+    private OutputPolicy policy = new OutputPolicy();
 
-    public RotatePhotoTask(String path, float angle, PhotoSavedListener callback) {
+    public RotatePhotoTask(String path, float angle, List<Rendition> renditions, PhotoSavedListener callback) {
         this.path = path;
         this.angle = angle;
+        this.renditions = renditions;
         this.callback = callback;
     }
 
+    /**
+     * @param policy quality of the formats, the file is rewritten in the format of its extension
+     */
+    public void setOutputPolicy(OutputPolicy policy) {
+        this.policy = policy;
+    }
+
     @Override
     protected Void doInBackground(Void... params) {
-        Bitmap bitmap = BitmapFactory.decodeFile(path); // todo NPE
-        Matrix matrix = new Matrix();
-        matrix.postRotate(angle);
-        bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        File photo = new File(path);
+        OutputFormat format = policy.getFormatFor(path);
+        if (format == OutputFormat.JPEG && angle % 90 == 0) {
+            rotateStrips(photo);
+        } else {
+            rotateBitmap(photo, format);
+        }
+
+        return null;
+    }
+
+    /**
+     * Rotates the JPEG strip by strip, it is never decoded at full size. Renditions are made from a subsampled
+     * decode.
+     */
+    private void rotateStrips(File photo) {
+        RenditionWriter renditionWriter = new RenditionWriter(photo, policy);
+        Bitmap preview = null;
+        if (!renditions.isEmpty()) {
+            preview = RenditionWriter.decodeFile(path, renditions);
+            if (preview != null) {
+                preview = rotate(preview);
+                renditionWriter.start(preview, renditions, false);
+            }
+        }
+        RegionTileSource source = null;
+        try {
+            source = new RegionTileSource(path);
+            new StripPipeline(source, source.getWidth(), source.getHeight()).rotate(Math.round(angle))
+                    .encodeJpeg(policy.getQuality(OutputFormat.JPEG), photo);
+        } catch (IOException e) {
+            Timber.e(e, "File write failure: " + e.getMessage());
+        } finally {
+            if (source != null) {
+                source.recycle();
+            }
+        }
+        renditionWriter.finish();
+        if (preview != null) {
+            preview.recycle();
+        }
+    }
+
+    private void rotateBitmap(File photo, OutputFormat format) {
+        Bitmap bitmap = rotate(BitmapFactory.decodeFile(path)); // todo NPE
+        RenditionWriter renditionWriter = new RenditionWriter(photo, policy);
+        renditionWriter.start(bitmap, renditions, false);
         FileOutputStream fos = null;
         try {
-            fos = new FileOutputStream(new File(path));
+            fos = new FileOutputStream(photo);
 
-            bitmap.compress(Bitmap.CompressFormat.JPEG, CameraConst.COMPRESS_QUALITY, fos);
+            ImageEncoder.encode(bitmap, format, policy.getQuality(format), fos);
 
         } catch (FileNotFoundException e) {
             Timber.e(e, "File not found: " + e.getMessage());
+        } catch (IOException e) {
+            Timber.e(e, "File write failure: " + e.getMessage());
         } finally {
             try {
                 if (fos != null) {
@@ -72,9 +130,18 @@ public class RotatePhotoTask extends AsyncTask<Void, Void, Void> {
                 Timber.e(e, e.getMessage());
             }
         }
+        renditionWriter.finish();
         bitmap.recycle();
+    }
 
-        return null;
+    private Bitmap rotate(Bitmap bitmap) {
+        Matrix matrix = new Matrix();
+        matrix.postRotate(angle);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
     }
 
     @Override
@@ -32,14 +32,16 @@ import timber.log.Timber;
 import android.graphics.Bitmap;
 import android.os.AsyncTask;
 
-import com.yalantis.cameramodule.CameraConst;
 import com.yalantis.cameramodule.interfaces.PhotoSavedListener;
+import com.yalantis.cameramodule.model.OutputFormat;
+import com.yalantis.cameramodule.model.OutputPolicy;
 
 public class SavingBitmapTask extends AsyncTask<Void, Void, Void> {
 
     private Bitmap bitmap;
     private String path;
     private PhotoSavedListener callback;
+    private OutputPolicy policy = new OutputPolicy();
 
     public SavingBitmapTask(Bitmap bitmap, String path, PhotoSavedListener callback) {
         this.bitmap = bitmap;
@@ -47,6 +49,13 @@ public class SavingBitmapTask extends AsyncTask<Void, Void, Void> {
         this.callback = callback;
     }
 
+    /**
+     * @param policy quality of the formats, the file is rewritten in the format of its extension
+     */
+    public void setOutputPolicy(OutputPolicy policy) {
+        this.policy = policy;
+    }
+
     @Override
     protected Void doInBackground(Void... params) {
         FileOutputStream fos = null;
@@ -54,11 +63,14 @@ public class SavingBitmapTask extends AsyncTask<Void, Void, Void> {
             fos = new FileOutputStream(new File(path));
 
             if (bitmap != null && !bitmap.isRecycled()) {
-                bitmap.compress(Bitmap.CompressFormat.JPEG, CameraConst.COMPRESS_QUALITY, fos);
+                OutputFormat format = policy.getFormatFor(path);
+                ImageEncoder.encode(bitmap, format, policy.getQuality(format), fos);
             }
 
         } catch (FileNotFoundException e) {
             Timber.e(e, "File not found: " + e.getMessage());
+        } catch (IOException e) {
+            Timber.e(e, "File write failure: " + e.getMessage());
         } finally {
             try {
                 if (fos != null) {
@@ -23,10 +23,13 @@
 
 package com.yalantis.cameramodule.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import timber.log.Timber;
 import android.graphics.Bitmap;
@@ -36,8 +39,11 @@ import android.media.ExifInterface;
 import android.os.AsyncTask;
 import android.os.Environment;
 
-import com.yalantis.cameramodule.CameraConst;
 import com.yalantis.cameramodule.interfaces.PhotoSavedListener;
+import com.yalantis.cameramodule.manager.HandoffManager;
+import com.yalantis.cameramodule.model.OutputFormat;
+import com.yalantis.cameramodule.model.OutputPolicy;
+import com.yalantis.cameramodule.model.Rendition;
 
 public class SavingPhotoTask extends AsyncTask<Void, Void, File> {
 
@@ -46,19 +52,64 @@ public class SavingPhotoTask extends AsyncTask<Void, Void, File> {
     private String path;
     private int orientation;
     private PhotoSavedListener callback;
+    private List<Rendition> renditions;
+    private String captureId;
+    private Bitmap handoff;
+    private int maxBytes;
+    private boolean optimizeHuffman;
+    private OutputPolicy policy = new OutputPolicy();
+    private OutputFormat format;
 
     public SavingPhotoTask(byte[] data, String name, String path, int orientation) {
         this(data, name, path, orientation, null);
     }
 
     public SavingPhotoTask(byte[] data, String name, String path, int orientation, PhotoSavedListener callback) {
+        this(data, name, path, orientation, Collections.<Rendition>emptyList(), callback);
+    }
+
+    public SavingPhotoTask(byte[] data, String name, String path, int orientation, List<Rendition> renditions,
+                           PhotoSavedListener callback) {
         this.data = data;
         this.name = name;
         this.path = path;
         this.orientation = orientation;
+        this.renditions = renditions;
         this.callback = callback;
     }
 
+    /**
+     * Hands the screen rendition (or the JPEG bytes if nothing was decoded) to {@link HandoffManager}
+     * under the given id, so the preview does not have to read the saved file back.
+     */
+    public void setCaptureId(String captureId) {
+        this.captureId = captureId;
+    }
+
+    /**
+     * Limits the saved file size. Bigger photos are encoded at the highest quality that fits, see
+     * {@link TargetSizeEncoder}.
+     *
+     * @param maxBytes file size limit, 0 for no limit
+     */
+    public void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Re-packs the saved photo with optimal Huffman tables in the background after it is reported as saved.
+     */
+    public void setOptimizeHuffman(boolean optimizeHuffman) {
+        this.optimizeHuffman = optimizeHuffman;
+    }
+
+    /**
+     * @param policy format and quality of the photo and its renditions, the name should have the format extension
+     */
+    public void setOutputPolicy(OutputPolicy policy) {
+        this.policy = policy;
+    }
+
     @Override
     protected File doInBackground(Void... params) {
         File photo = getOutputMediaFile();
@@ -67,13 +118,15 @@ public class SavingPhotoTask extends AsyncTask<Void, Void, File> {
             return null;
         }
 
+        format = policy.getFormatFor(photo.getPath());
+        RenditionWriter renditionWriter = new RenditionWriter(photo, policy);
         FileOutputStream fos = null;
         try {
             fos = new FileOutputStream(photo);
-            if (orientation == ExifInterface.ORIENTATION_UNDEFINED) {
-                saveByteArray(fos, data);
+            if (orientation == ExifInterface.ORIENTATION_UNDEFINED && format == OutputFormat.JPEG) {
+                saveByteArray(fos, data, renditionWriter);
             } else {
-                saveByteArrayWithOrientation(fos, data, orientation);
+                saveByteArrayWithOrientation(fos, data, orientation, renditionWriter);
             }
 
         } catch (FileNotFoundException e) {
@@ -89,17 +142,73 @@ public class SavingPhotoTask extends AsyncTask<Void, Void, File> {
                 Timber.e(e, e.getMessage());
             }
         }
+        renditionWriter.finish();
+
+        if (captureId != null) {
+            if (handoff != null) {
+                HandoffManager.i.put(captureId, handoff);
+            } else if (orientation == ExifInterface.ORIENTATION_UNDEFINED) {
+                // bytes are only valid as is when they were not rotated
+                HandoffManager.i.put(captureId, data);
+            }
+        }
 
         return photo;
     }
 
-    private void saveByteArray(FileOutputStream fos, byte[] data) throws IOException {
+    /**
+     * Writes JPEG data as is. Renditions and EXIF thumbnail (if camera did not provide EXIF)
+     * are made from one subsampled decode.
+     */
+    private void saveByteArray(FileOutputStream fos, byte[] data, RenditionWriter renditionWriter) throws IOException {
+        if (maxBytes > 0 && data.length > maxBytes) {
+            saveByteArrayWithOrientation(fos, data, 0, renditionWriter);
+            return;
+        }
         long time = System.currentTimeMillis();
+        boolean needsExif = !ExifThumbnailWriter.hasExif(data);
+        if (!renditions.isEmpty() || needsExif) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = RenditionWriter.calculateInSampleSize(options, RenditionWriter.getMaxSide(renditions));
+            Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            Timber.d("decodeByteArray(1/%1d): %2dms", options.inSampleSize, System.currentTimeMillis() - time);
+            if (bitmap != null) {
+                renditionWriter.start(bitmap, renditions, needsExif);
+                retainHandoff(renditionWriter);
+                byte[] thumbnail = renditionWriter.getExifThumbnail();
+                if (maxBytes > 0 && data.length + ExifThumbnailWriter.getSegmentSize(thumbnail) > maxBytes) {
+                    thumbnail = null;
+                }
+                ExifThumbnailWriter.write(fos, data, data.length, thumbnail);
+                renditionWriter.finish();
+                if (bitmap != handoff) {
+                    bitmap.recycle();
+                }
+                Timber.d("saveByteArray: %1dms", System.currentTimeMillis() - time);
+                return;
+            }
+        }
         fos.write(data);
         Timber.d("saveByteArray: %1dms", System.currentTimeMillis() - time);
     }
 
-    private void saveByteArrayWithOrientation(FileOutputStream fos, byte[] data, int orientation) {
+    private void saveByteArrayWithOrientation(FileOutputStream fos, byte[] data, int orientation,
+                                              RenditionWriter renditionWriter) throws IOException {
+        if (format == OutputFormat.JPEG && maxBytes == 0 && orientation % 90 == 0) {
+            RegionTileSource source = null;
+            try {
+                source = new RegionTileSource(data);
+            } catch (IOException e) {
+                Timber.e(e, "Region decoder failure: " + e.getMessage());
+            }
+            if (source != null) {
+                saveStrips(fos, source, data, orientation, renditionWriter);
+                return;
+            }
+        }
         long totalTime = System.currentTimeMillis();
         long time = System.currentTimeMillis();
 
@@ -108,24 +217,105 @@ public class SavingPhotoTask extends AsyncTask<Void, Void, File> {
 
         time = System.currentTimeMillis();
         if (orientation != 0 && bitmap.getWidth() > bitmap.getHeight()) {
-            Matrix matrix = new Matrix();
-            matrix.postRotate(orientation);
-            bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+            bitmap = rotate(bitmap, orientation);
             Timber.d("createBitmap: %1dms", System.currentTimeMillis() - time);
         }
+        renditionWriter.start(bitmap, renditions, format.hasExif());
+        retainHandoff(renditionWriter);
+
         time = System.currentTimeMillis();
-        bitmap.compress(Bitmap.CompressFormat.JPEG, CameraConst.COMPRESS_QUALITY, fos);
-        Timber.d("compress: %1dms", System.currentTimeMillis() - time);
+        int quality = policy.getQuality(format);
+        if (!format.hasExif()) {
+            if (maxBytes > 0 && format.isLossy()) {
+                TargetSizeEncoder.Result result = TargetSizeEncoder.encode(bitmap, format.getCompressFormat(),
+                        maxBytes, quality);
+                fos.write(result.data);
+            } else {
+                ImageEncoder.encode(bitmap, format, quality, fos);
+            }
+            Timber.d("compress: %1dms", System.currentTimeMillis() - time);
+        } else if (maxBytes > 0) {
+            // the thumbnail counts against the limit too
+            byte[] thumbnail = renditionWriter.getExifThumbnail();
+            TargetSizeEncoder.Result result = TargetSizeEncoder.encode(bitmap,
+                    maxBytes - ExifThumbnailWriter.getSegmentSize(thumbnail), quality);
+            Timber.d("compress to %1d bytes: %2dms", maxBytes, System.currentTimeMillis() - time);
+            ExifThumbnailWriter.write(fos, result.data, result.data.length, thumbnail);
+        } else {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length);
+            ImageEncoder.encode(bitmap, format, quality, bos);
+            Timber.d("compress: %1dms", System.currentTimeMillis() - time);
 
-        bitmap.recycle();
+            ExifThumbnailWriter.write(fos, bos.toByteArray(), bos.size(), renditionWriter.getExifThumbnail());
+        }
+        renditionWriter.finish();
+        if (bitmap != handoff) {
+            bitmap.recycle();
+        }
 
         Timber.d("saveByteArrayWithOrientation: %1dms", System.currentTimeMillis() - totalTime);
     }
 
+    /**
+     * Rotates and encodes JPEG data strip by strip, so the photo is never decoded at full size. Renditions and EXIF
+     * thumbnail are made from a subsampled decode.
+     */
+    private void saveStrips(FileOutputStream fos, RegionTileSource source, byte[] data, int orientation,
+                            RenditionWriter renditionWriter) throws IOException {
+        long time = System.currentTimeMillis();
+        Bitmap bitmap = null;
+        try {
+            StripPipeline pipeline = new StripPipeline(source, source.getWidth(), source.getHeight());
+            boolean rotate = orientation != 0 && source.getWidth() > source.getHeight();
+            if (rotate) {
+                pipeline.rotate(orientation);
+            }
+            bitmap = RenditionWriter.decodeByteArray(data, renditions);
+            if (bitmap != null) {
+                if (rotate) {
+                    bitmap = rotate(bitmap, orientation);
+                }
+                renditionWriter.start(bitmap, renditions, true);
+                retainHandoff(renditionWriter);
+            }
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length);
+            pipeline.encodeJpeg(policy.getQuality(format), bos);
+            ExifThumbnailWriter.write(fos, bos.toByteArray(), bos.size(), renditionWriter.getExifThumbnail());
+        } finally {
+            source.recycle();
+        }
+        renditionWriter.finish();
+        if (bitmap != null && bitmap != handoff) {
+            bitmap.recycle();
+        }
+
+        Timber.d("saveStrips: %1dms", System.currentTimeMillis() - time);
+    }
+
+    private static Bitmap rotate(Bitmap bitmap, int orientation) {
+        Matrix matrix = new Matrix();
+        matrix.postRotate(orientation);
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) {
+            bitmap.recycle();
+        }
+        return rotated;
+    }
+
+    private void retainHandoff(RenditionWriter renditionWriter) {
+        if (captureId != null) {
+            handoff = renditionWriter.retain(Rendition.SCREEN);
+        }
+    }
+
     @Override
     protected void onPostExecute(File file) {
         super.onPostExecute(file);
         photoSaved(file);
+        if (optimizeHuffman && file != null && format == OutputFormat.JPEG) {
+            new HuffmanOptimizeTask(file).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
     }
 
     private void photoSaved(File photo) {
@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.io.ByteArrayOutputStream;
+
+import timber.log.Timber;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.ExifInterface;
+import android.os.AsyncTask;
+
+import com.yalantis.cameramodule.CameraConst;
+import com.yalantis.cameramodule.interfaces.PhotoTakenCallback;
+
+/**
+ * Encodes a preview frame to JPEG with {@link YuvImage}, rotated upright and optionally cropped, and passes it to
+ * the callback as a photo that needs no further rotation.
+ */
+public class SnapshotTask extends AsyncTask<Void, Void, byte[]> {
+
+    private byte[] frame;
+    private int width;
+    private int height;
+    private int format;
+    private int orientation;
+    private Rect crop;
+    private PhotoTakenCallback callback;
+
+    /**
+     * @param orientation clockwise rotation that makes the frame upright
+     * @param crop        area of the upright frame to keep, or null for all of it
+     */
+    public SnapshotTask(byte[] frame, int width, int height, int format, int orientation, Rect crop,
+                        PhotoTakenCallback callback) {
+        this.frame = frame;
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.orientation = orientation;
+        this.crop = crop;
+        this.callback = callback;
+    }
+
+    @Override
+    protected byte[] doInBackground(Void... params) {
+        long time = System.currentTimeMillis();
+        byte[] data = frame;
+        int w = width;
+        int h = height;
+        if (orientation != 0 && format == ImageFormat.NV21) {
+            data = new byte[frame.length];
+            YuvConverter.rotate(frame, width, height, orientation, data);
+            if (orientation == 90 || orientation == 270) {
+                w = height;
+                h = width;
+            }
+        }
+        Rect rect = new Rect(0, 0, w, h);
+        if (crop != null && !rect.intersect(crop)) {
+            rect.set(0, 0, w, h);
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(rect.width() * rect.height() / 4);
+        YuvImage image = new YuvImage(data, format, w, h, null);
+        if (!image.compressToJpeg(rect, CameraConst.COMPRESS_QUALITY, bos)) {
+            Timber.e("Snapshot encoding failure");
+            return null;
+        }
+        Timber.d("snapshot %1dx%2d: %3dms", rect.width(), rect.height(), System.currentTimeMillis() - time);
+        return bos.toByteArray();
+    }
+
+    @Override
+    protected void onPostExecute(byte[] jpeg) {
+        frame = null;
+        if (jpeg != null && callback != null) {
+            callback.photoTaken(jpeg, ExifInterface.ORIENTATION_UNDEFINED);
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import timber.log.Timber;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+
+import com.yalantis.cameramodule.CameraConst;
+import com.yalantis.cameramodule.interfaces.PhotoTakenCallback;
+
+/**
+ * Multi-frame noise reduction for low light. Frames are aligned on small decodes with {@link FrameStacker}, and
+ * {@link ParallelJpegEncoder} pulls the average band by band from full resolution {@link RegionTileSource} tiles,
+ * so nothing is held at full size. The result goes to the callback as JPEG.
+ */
+public class StackingTask extends AsyncTask<Void, Void, byte[]> {
+
+    /**
+     * Longest side of the decode used for alignment
+     */
+    private static final int ALIGN_SIZE = 640;
+
+    /**
+     * Largest shift between frames to look for, as a part of the longest side
+     */
+    private static final float MAX_SHIFT = 0.05f;
+
+    /**
+     * Part of the heap given to bands in flight
+     */
+    private static final int BAND_HEAP_DIVIDER = 8;
+
+    private List<byte[]> frames;
+    private int orientation;
+    private PhotoTakenCallback callback;
+
+    /**
+     * @param frames JPEG frames, the first one is the reference others are aligned to
+     */
+    public StackingTask(List<byte[]> frames, int orientation, PhotoTakenCallback callback) {
+        this.frames = frames;
+        this.orientation = orientation;
+        this.callback = callback;
+    }
+
+    @Override
+    protected byte[] doInBackground(Void... params) {
+        long time = System.currentTimeMillis();
+        RegionTileSource source = null;
+        try {
+            List<Callable<LumaPyramid>> tasks = new ArrayList<>();
+            for (byte[] data : frames) {
+                tasks.add(new PyramidTask(data));
+            }
+            List<LumaPyramid> pyramids = WorkerPool.invokeAll(tasks);
+            LumaPyramid reference = pyramids.get(0);
+            if (reference == null) {
+                return frames.get(0);
+            }
+
+            source = new RegionTileSource(frames, false);
+            int width = source.getWidth();
+            int height = source.getHeight();
+            float scale = (float) width / reference.getWidth(0);
+            int maxShift = (int) (Math.max(reference.getWidth(0), reference.getHeight(0)) * MAX_SHIFT);
+            int[][] shifts = new int[frames.size()][];
+            for (int i = 0; i < shifts.length; i++) {
+                LumaPyramid pyramid = pyramids.get(i);
+                int[] shift = pyramid != null ? FrameStacker.estimateShift(reference, pyramid, maxShift) : null;
+                if (shift == null || Math.max(Math.abs(shift[0]), Math.abs(shift[1])) >= maxShift) {
+                    // a frame that can't be aligned would blur the result
+                    Timber.d("stack frame %1d skipped", i);
+                } else {
+                    shifts[i] = new int[] {Math.round(shift[0] * scale), Math.round(shift[1] * scale)};
+                }
+            }
+            Timber.d("stack alignment: %1dms", System.currentTimeMillis() - time);
+
+            time = System.currentTimeMillis();
+            long readBudget = Runtime.getRuntime().maxMemory() / BAND_HEAP_DIVIDER
+                    / ParallelJpegEncoder.getBandsInFlight();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(frames.get(0).length);
+            ParallelJpegEncoder.encode(FrameStacker.asTileSource(source, shifts, width, height, readBudget), 0,
+                    width, height, CameraConst.COMPRESS_QUALITY, bos);
+            Timber.d("stack of %1d %2dx%3d: %4dms", frames.size(), width, height, System.currentTimeMillis() - time);
+            return bos.toByteArray();
+        } catch (IOException e) {
+            Timber.e(e, "Stacking failure: " + e.getMessage());
+            return frames.get(0);
+        } finally {
+            if (source != null) {
+                source.recycle();
+            }
+        }
+    }
+
+    @Override
+    protected void onPostExecute(byte[] data) {
+        frames = null;
+        callback.photoTaken(data, orientation);
+    }
+
+    private static class PyramidTask implements Callable<LumaPyramid> {
+
+        private byte[] data;
+
+        PyramidTask(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public LumaPyramid call() {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = RenditionWriter.calculateInSampleSize(options, ALIGN_SIZE);
+            Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            if (bitmap == null) {
+                return null;
+            }
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            bitmap.recycle();
+            return LumaPyramid.fromArgb(pixels, width, height, FrameStacker.MIN_ALIGN_SIDE);
+        }
+
+    }
+
+}
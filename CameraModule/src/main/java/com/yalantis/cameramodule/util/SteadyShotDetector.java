@@ -0,0 +1,149 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+/**
+ * Finds a steady and sharp moment in a stream of small luma images, such as a {@link LumaPyramid} level of
+ * preview frames. Motion is the mean absolute difference from the previous image, sharpness is the variance of
+ * its Laplacian. An image is steady if motion stayed low for a few frames and sharpness is close to the best seen
+ * since {@link #reset()}.
+ * <p/>
+ * Analysis allocates nothing; the previous image is copied into a buffer that is reused while the size stays
+ * the same, so callers may reuse their images. Not thread safe.
+ */
+public class SteadyShotDetector {
+
+    /**
+     * Longest side of the analysed luma image
+     */
+    public static final int ANALYSIS_SIZE = 160;
+
+    /**
+     * Mean absolute luma difference between frames, in gray levels, below which the scene is still
+     */
+    private static final float MOTION_THRESHOLD = 3f;
+
+    private static final int STEADY_FRAMES = 3;
+
+    /**
+     * Part of the best sharpness seen a frame has to reach
+     */
+    private static final float SHARPNESS_RATIO = 0.85f;
+
+    /**
+     * Frames to see before sharpness is trusted to be the best reachable
+     */
+    private static final int WARM_UP_FRAMES = 4;
+
+    private int width;
+    private int height;
+    private byte[] previous;
+    private boolean hasPrevious;
+
+    private float motion;
+    private float sharpness;
+    private float bestSharpness;
+    private int steadyFrames;
+    private int frames;
+
+    /**
+     * Forgets previous frames, call before each capture request.
+     */
+    public void reset() {
+        hasPrevious = false;
+        motion = 0;
+        sharpness = 0;
+        bestSharpness = 0;
+        steadyFrames = 0;
+        frames = 0;
+    }
+
+    /**
+     * @return true if this frame is a steady, sharp moment to capture
+     */
+    public boolean analyze(byte[] luma, int width, int height) {
+        if (width != this.width || height != this.height) {
+            this.width = width;
+            this.height = height;
+            reset();
+        }
+        sharpness = laplacianVariance(luma);
+        if (sharpness > bestSharpness) {
+            bestSharpness = sharpness;
+        }
+        frames++;
+
+        if (hasPrevious) {
+            motion = meanDifference(luma, previous);
+            steadyFrames = motion < MOTION_THRESHOLD ? steadyFrames + 1 : 0;
+        }
+        if (previous == null || previous.length != luma.length) {
+            previous = new byte[luma.length];
+        }
+        System.arraycopy(luma, 0, previous, 0, luma.length);
+        hasPrevious = true;
+
+        return frames >= WARM_UP_FRAMES && steadyFrames >= STEADY_FRAMES
+                && sharpness >= bestSharpness * SHARPNESS_RATIO;
+    }
+
+    public float getMotion() {
+        return motion;
+    }
+
+    public float getSharpness() {
+        return sharpness;
+    }
+
+    private float laplacianVariance(byte[] luma) {
+        long sum = 0;
+        long sumSquares = 0;
+        for (int y = 1; y < height - 1; y++) {
+            int row = y * width;
+            for (int x = 1; x < width - 1; x++) {
+                int i = row + x;
+                int laplacian = 4 * (luma[i] & 0xFF) - (luma[i - 1] & 0xFF) - (luma[i + 1] & 0xFF)
+                        - (luma[i - width] & 0xFF) - (luma[i + width] & 0xFF);
+                sum += laplacian;
+                sumSquares += laplacian * laplacian;
+            }
+        }
+        int count = (width - 2) * (height - 2);
+        if (count <= 0) {
+            return 0;
+        }
+        float mean = (float) sum / count;
+        return (float) sumSquares / count - mean * mean;
+    }
+
+    private float meanDifference(byte[] a, byte[] b) {
+        long sum = 0;
+        int count = width * height;
+        for (int i = 0; i < count; i++) {
+            sum += Math.abs((a[i] & 0xFF) - (b[i] & 0xFF));
+        }
+        return (float) sum / count;
+    }
+
+}
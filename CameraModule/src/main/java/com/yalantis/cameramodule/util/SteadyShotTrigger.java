@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import timber.log.Timber;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.yalantis.cameramodule.interfaces.FrameAnalyzer;
+import com.yalantis.cameramodule.interfaces.SteadyShotCallback;
+
+/**
+ * Watches preview frames after a capture request and reports the first steady, sharp moment, or a timeout.
+ * It is registered with the {@link FrameAnalyzerPipeline} only while watching.
+ */
+public class SteadyShotTrigger implements FrameAnalyzer {
+
+    public static final long DEFAULT_TIMEOUT = 2000;
+
+    private FrameAnalyzerPipeline pipeline;
+    private long timeout = DEFAULT_TIMEOUT;
+
+    private SteadyShotDetector detector = new SteadyShotDetector();
+    private Handler main = new Handler(Looper.getMainLooper());
+
+    private SteadyShotCallback callback;
+    private long requestTime;
+    private volatile boolean running;
+
+    public SteadyShotTrigger(FrameAnalyzerPipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Starts watching preview frames.
+     */
+    public void start(SteadyShotCallback callback) {
+        if (running) {
+            return;
+        }
+        this.callback = callback;
+        detector.reset();
+        requestTime = System.currentTimeMillis();
+        running = true;
+        pipeline.add(this);
+        main.postDelayed(timeoutRunnable, timeout);
+    }
+
+    /**
+     * Stops watching without calling back.
+     */
+    public void cancel() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        main.removeCallbacks(timeoutRunnable);
+        main.removeCallbacks(steadyRunnable);
+        pipeline.remove(this);
+    }
+
+    @Override
+    public String getName() {
+        return "steady-shot";
+    }
+
+    @Override
+    public int getTargetRate() {
+        return 0;
+    }
+
+    @Override
+    public int getTargetSize() {
+        return SteadyShotDetector.ANALYSIS_SIZE;
+    }
+
+    @Override
+    public void analyze(LumaPyramid pyramid, int level, long timestamp) {
+        if (!running) {
+            return;
+        }
+        if (detector.analyze(pyramid.getLevel(level), pyramid.getWidth(level), pyramid.getHeight(level))) {
+            main.post(steadyRunnable);
+        }
+    }
+
+    private Runnable steadyRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            finish(false);
+        }
+    };
+
+    private Runnable timeoutRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            finish(true);
+        }
+    };
+
+    private void finish(boolean timedOut) {
+        if (!running) {
+            return;
+        }
+        cancel();
+        long waited = System.currentTimeMillis() - requestTime;
+        Timber.d("steady shot: %1dms%2s, motion %3f, sharpness %4f", waited, timedOut ? " (timeout)" : "",
+                detector.getMotion(), detector.getSharpness());
+        callback.onSteady(timedOut, waited);
+    }
+
+}
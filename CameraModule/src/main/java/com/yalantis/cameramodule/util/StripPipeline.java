@@ -0,0 +1,302 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import timber.log.Timber;
+import android.graphics.Rect;
+
+import com.yalantis.cameramodule.interfaces.TileSource;
+
+/**
+ * Full resolution edits that never hold the whole picture. Each stage wraps the previous one as a
+ * {@link TileSource}, so a strip of the output reads only the part of the source it needs. The encoder pulls bands
+ * of output rows on all cores, so adjacent strips go through the stages at the same time. Memory use depends on
+ * the band size and the core count, not on the picture size.
+ */
+public class StripPipeline {
+
+    /**
+     * Largest source region a scale stage reads at once, in pixels
+     */
+    private static final int MAX_READ_PIXELS = 1 << 18;
+
+    private TileSource source;
+    private int width;
+    private int height;
+
+    public StripPipeline(TileSource source, int width, int height) {
+        this.source = source;
+        this.width = width;
+        this.height = height;
+    }
+
+    public TileSource getSource() {
+        return source;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Appends a custom stage. It should read from {@link #getSource()} and may be called from several threads.
+     */
+    public StripPipeline add(TileSource stage, int width, int height) {
+        this.source = stage;
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    /**
+     * @param degrees clockwise, a multiple of 90
+     */
+    public StripPipeline rotate(int degrees) {
+        degrees = (degrees % 360 + 360) % 360;
+        if (degrees % 90 != 0) {
+            throw new IllegalArgumentException("Unsupported rotation " + degrees);
+        }
+        if (degrees == 0) {
+            return this;
+        }
+        boolean swap = degrees != 180;
+        return add(new RotateStage(source, width, height, degrees), swap ? height : width, swap ? width : height);
+    }
+
+    public StripPipeline crop(Rect rect) {
+        if (rect.left < 0 || rect.top < 0 || rect.right > width || rect.bottom > height || rect.isEmpty()) {
+            throw new IllegalArgumentException("Crop " + rect + " is out of " + width + "x" + height);
+        }
+        return add(new CropStage(source, rect.left, rect.top), rect.width(), rect.height());
+    }
+
+    /**
+     * Bilinear scale, meant for factors of up to 2 either way.
+     */
+    public StripPipeline scale(int width, int height) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Unsupported size " + width + "x" + height);
+        }
+        if (width == this.width && height == this.height) {
+            return this;
+        }
+        return add(new ScaleStage(source, this.width, this.height, width, height), width, height);
+    }
+
+    /**
+     * @param matrix 4x5 matrix in the layout of {@link android.graphics.ColorMatrix#getArray()}
+     */
+    public StripPipeline colorMatrix(float[] matrix) {
+        return add(new ColorStage(source, matrix.clone()), width, height);
+    }
+
+    public void encodeJpeg(int quality, OutputStream out) throws IOException {
+        long time = System.currentTimeMillis();
+        ParallelJpegEncoder.encode(source, 0, width, height, quality, out);
+        Timber.d("strip pipeline %1dx%2d: %3dms", width, height, System.currentTimeMillis() - time);
+    }
+
+    /**
+     * Encodes into a temporary file that then replaces the given one, so the pipeline may read the file it replaces.
+     */
+    public void encodeJpeg(int quality, File file) throws IOException {
+        // unique name, other tasks may be rewriting the same file
+        File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        FileOutputStream fos = new FileOutputStream(temp);
+        try {
+            try {
+                encodeJpeg(quality, fos);
+            } finally {
+                fos.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Can't replace " + file);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private static class RotateStage implements TileSource {
+
+        private final TileSource source;
+        private final int sourceWidth;
+        private final int sourceHeight;
+        private final int degrees;
+
+        RotateStage(TileSource source, int sourceWidth, int sourceHeight, int degrees) {
+            this.source = source;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.degrees = degrees;
+        }
+
+        @Override
+        public int[] readTile(int frame, int left, int top, int width, int height) {
+            int[] out = new int[width * height];
+            int[] region;
+            switch (degrees) {
+                case 90:
+                    region = source.readTile(frame, top, sourceHeight - left - width, height, width);
+                    for (int y = 0; y < height; y++) {
+                        for (int x = 0; x < width; x++) {
+                            out[y * width + x] = region[(width - 1 - x) * height + y];
+                        }
+                    }
+                    break;
+                case 180:
+                    region = source.readTile(frame, sourceWidth - left - width, sourceHeight - top - height,
+                            width, height);
+                    for (int i = 0, last = width * height - 1; i <= last; i++) {
+                        out[i] = region[last - i];
+                    }
+                    break;
+                default:
+                    region = source.readTile(frame, sourceWidth - top - height, left, height, width);
+                    for (int y = 0; y < height; y++) {
+                        for (int x = 0; x < width; x++) {
+                            out[y * width + x] = region[x * height + height - 1 - y];
+                        }
+                    }
+                    break;
+            }
+            return out;
+        }
+
+    }
+
+    private static class CropStage implements TileSource {
+
+        private final TileSource source;
+        private final int left;
+        private final int top;
+
+        CropStage(TileSource source, int left, int top) {
+            this.source = source;
+            this.left = left;
+            this.top = top;
+        }
+
+        @Override
+        public int[] readTile(int frame, int left, int top, int width, int height) {
+            return source.readTile(frame, this.left + left, this.top + top, width, height);
+        }
+
+    }
+
+    private static class ScaleStage implements TileSource {
+
+        private final TileSource source;
+        private final int sourceWidth;
+        private final int sourceHeight;
+        private final float ratioX;
+        private final float ratioY;
+
+        ScaleStage(TileSource source, int sourceWidth, int sourceHeight, int width, int height) {
+            this.source = source;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.ratioX = (float) sourceWidth / width;
+            this.ratioY = (float) sourceHeight / height;
+        }
+
+        @Override
+        public int[] readTile(int frame, int left, int top, int width, int height) {
+            int[] out = new int[width * height];
+            int regionLeft = sourceFloor(left, ratioX, sourceWidth);
+            int regionRight = sourceCeil(left + width, ratioX, sourceWidth);
+            int regionWidth = regionRight - regionLeft;
+            // output rows are done in chunks, so a big downscale does not read a big source region at once
+            int chunk = Math.max(1, (int) (MAX_READ_PIXELS / (regionWidth * ratioY)));
+            for (int first = 0; first < height; first += chunk) {
+                int rows = Math.min(chunk, height - first);
+                int regionTop = sourceFloor(top + first, ratioY, sourceHeight);
+                int regionHeight = sourceCeil(top + first + rows, ratioY, sourceHeight) - regionTop;
+                int[] region = source.readTile(frame, regionLeft, regionTop, regionWidth, regionHeight);
+                for (int y = 0; y < rows; y++) {
+                    float sy = (top + first + y + 0.5f) * ratioY - 0.5f - regionTop;
+                    for (int x = 0; x < width; x++) {
+                        float sx = (left + x + 0.5f) * ratioX - 0.5f - regionLeft;
+                        out[(first + y) * width + x] = PerspectiveWarp.sample(region, regionWidth, regionHeight,
+                                sx, sy);
+                    }
+                }
+            }
+            return out;
+        }
+
+        private static int sourceFloor(int position, float ratio, int size) {
+            return Math.max(0, Math.min(size - 1, (int) Math.floor(position * ratio - 0.5f)));
+        }
+
+        private static int sourceCeil(int position, float ratio, int size) {
+            return Math.min(size, (int) Math.ceil(position * ratio + 0.5f) + 1);
+        }
+
+    }
+
+    private static class ColorStage implements TileSource {
+
+        private final TileSource source;
+        private final float[] matrix;
+
+        ColorStage(TileSource source, float[] matrix) {
+            this.source = source;
+            this.matrix = matrix;
+        }
+
+        @Override
+        public int[] readTile(int frame, int left, int top, int width, int height) {
+            int[] pixels = source.readTile(frame, left, top, width, height);
+            float[] m = matrix;
+            for (int i = 0; i < pixels.length; i++) {
+                int color = pixels[i];
+                float a = color >>> 24;
+                float r = (color >> 16) & 0xFF;
+                float g = (color >> 8) & 0xFF;
+                float b = color & 0xFF;
+                pixels[i] = clamp(m[15] * r + m[16] * g + m[17] * b + m[18] * a + m[19]) << 24
+                        | clamp(m[0] * r + m[1] * g + m[2] * b + m[3] * a + m[4]) << 16
+                        | clamp(m[5] * r + m[6] * g + m[7] * b + m[8] * a + m[9]) << 8
+                        | clamp(m[10] * r + m[11] * g + m[12] * b + m[13] * a + m[14]);
+            }
+            return pixels;
+        }
+
+        private static int clamp(float value) {
+            return value <= 0 ? 0 : value >= 255 ? 255 : (int) (value + 0.5f);
+        }
+
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import timber.log.Timber;
+import android.graphics.Bitmap;
+
+/**
+ * Encodes a bitmap to JPEG or lossy WebP at the highest quality that fits into a byte budget. File size is estimated on a
+ * downscaled copy first, then a few full size candidates around the estimate are encoded in parallel on
+ * {@link WorkerPool}, narrowing the quality range each round.
+ */
+public final class TargetSizeEncoder {
+
+    public static final int MIN_QUALITY = 10;
+
+    /**
+     * Longest side of the copy the first quality estimate is made on
+     */
+    private static final int ESTIMATE_SIDE = 512;
+    private static final int MAX_CANDIDATES = 3;
+    /**
+     * Distance between the candidates of the first round, around the estimate
+     */
+    private static final int ESTIMATE_STEP = 3;
+
+    public static class Result {
+
+        public final byte[] data;
+        public final int quality;
+        /**
+         * Rounds of full size encodes
+         */
+        public final int iterations;
+        public final int encodes;
+
+        Result(byte[] data, int quality, int iterations, int encodes) {
+            this.data = data;
+            this.quality = quality;
+            this.iterations = iterations;
+            this.encodes = encodes;
+        }
+
+        @Override
+        public String toString() {
+            return "quality " + quality + ", " + data.length + " bytes, " + iterations + " iterations, " + encodes
+                    + " encodes";
+        }
+
+    }
+
+    private TargetSizeEncoder() {
+    }
+
+    /**
+     * @param maxQuality quality used if the whole photo fits at it
+     * @return highest quality result not bigger than maxBytes, or the {@link #MIN_QUALITY} one if nothing fits
+     */
+    public static Result encode(Bitmap bitmap, int maxBytes, int maxQuality) {
+        return encode(bitmap, Bitmap.CompressFormat.JPEG, maxBytes, maxQuality);
+    }
+
+    public static Result encode(Bitmap bitmap, Bitmap.CompressFormat format, int maxBytes, int maxQuality) {
+        long time = System.currentTimeMillis();
+        int estimate = estimateQuality(bitmap, format, maxBytes, maxQuality);
+        int candidates = Math.max(1, Math.min(MAX_CANDIDATES, WorkerPool.CPU_COUNT));
+        int sizeHint = Math.max(1024, Math.min(maxBytes, bitmap.getWidth() * bitmap.getHeight()));
+        // highest quality known to fit and lowest known not to, outside of the range at first
+        int low = MIN_QUALITY - 1;
+        int high = maxQuality + 1;
+        byte[] best = null;
+        byte[] smallest = null;
+        int iterations = 0;
+        int encodes = 0;
+        while (high - low > 1) {
+            List<Integer> qualities = iterations == 0 ? around(estimate, low, high, candidates)
+                    : spread(low, high, candidates);
+            List<Callable<byte[]>> tasks = new ArrayList<>(qualities.size());
+            for (int quality : qualities) {
+                tasks.add(new EncodeTask(bitmap, format, quality, sizeHint));
+            }
+            List<byte[]> results = WorkerPool.invokeAll(tasks);
+            iterations++;
+            encodes += tasks.size();
+            for (int i = 0; i < results.size(); i++) {
+                int quality = qualities.get(i);
+                byte[] data = results.get(i);
+                if (data.length <= maxBytes) {
+                    if (quality > low) {
+                        low = quality;
+                        best = data;
+                    }
+                } else if (quality < high) {
+                    high = quality;
+                    if (quality == MIN_QUALITY) {
+                        smallest = data;
+                    }
+                }
+            }
+            if (low >= high) {
+                // size is not strictly monotonic in quality, keep what fits
+                break;
+            }
+        }
+        Result result = best != null ? new Result(best, low, iterations, encodes)
+                : new Result(smallest, MIN_QUALITY, iterations, encodes);
+        Timber.d("%1s target %2d bytes (estimate q%3d): %4s, %5dms", format, maxBytes, estimate, result,
+                System.currentTimeMillis() - time);
+        return result;
+    }
+
+    /**
+     * Binary search on a downscaled copy, with its sizes scaled up by the pixel count ratio.
+     */
+    private static int estimateQuality(Bitmap bitmap, Bitmap.CompressFormat format, int maxBytes, int maxQuality) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        float ratio = (float) ESTIMATE_SIDE / Math.max(width, height);
+        if (ratio >= 1) {
+            return maxQuality;
+        }
+        Bitmap small = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(width * ratio)),
+                Math.max(1, Math.round(height * ratio)), true);
+        try {
+            float scale = (float) width * height / (small.getWidth() * small.getHeight());
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            int low = MIN_QUALITY;
+            int high = maxQuality;
+            while (low < high) {
+                int quality = (low + high + 1) / 2;
+                bos.reset();
+                small.compress(format, quality, bos);
+                if (bos.size() * scale <= maxBytes) {
+                    low = quality;
+                } else {
+                    high = quality - 1;
+                }
+            }
+            return low;
+        } finally {
+            if (small != bitmap) {
+                small.recycle();
+            }
+        }
+    }
+
+    /**
+     * @return up to count qualities inside (low, high), the estimate and its neighbours
+     */
+    private static List<Integer> around(int estimate, int low, int high, int count) {
+        List<Integer> qualities = new ArrayList<>(count);
+        qualities.add(Math.max(low + 1, Math.min(high - 1, estimate)));
+        for (int i = 1; qualities.size() < count && i <= count; i++) {
+            int quality = estimate + (i % 2 == 1 ? 1 : -1) * ((i + 1) / 2) * ESTIMATE_STEP;
+            if (quality > low && quality < high && !qualities.contains(quality)) {
+                qualities.add(quality);
+            }
+        }
+        return qualities;
+    }
+
+    /**
+     * @return up to count qualities evenly spread inside (low, high)
+     */
+    private static List<Integer> spread(int low, int high, int count) {
+        int gap = high - low;
+        int n = Math.min(count, gap - 1);
+        List<Integer> qualities = new ArrayList<>(n);
+        for (int i = 1; i <= n; i++) {
+            qualities.add(low + i * gap / (n + 1));
+        }
+        return qualities;
+    }
+
+    private static class EncodeTask implements Callable<byte[]> {
+
+        private final Bitmap bitmap;
+        private final Bitmap.CompressFormat format;
+        private final int quality;
+        private final int sizeHint;
+
+        EncodeTask(Bitmap bitmap, Bitmap.CompressFormat format, int quality, int sizeHint) {
+            this.bitmap = bitmap;
+            this.format = format;
+            this.quality = quality;
+            this.sizeHint = sizeHint;
+        }
+
+        @Override
+        public byte[] call() {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(sizeHint);
+            bitmap.compress(format, quality, bos);
+            return bos.toByteArray();
+        }
+
+    }
+
+}
@@ -0,0 +1,318 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Zillow
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is furnished
+ * to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.yalantis.cameramodule.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Converts NV21 frames to ARGB or luma with integer math and lookup tables (full range, as camera preview and
+ * {@link android.graphics.YuvImage} use), optionally box-downsampling by 2 or 4 on the way. Large frames are split
+ * into row bands converted in parallel on {@link WorkerPool}.
+ * <p/>
+ * An instance keeps its destination arrays and reuses them while the output size stays the same, so a result is
+ * only valid until the next call. Not thread safe; the static methods are.
+ */
+public class YuvConverter {
+
+    /**
+     * Output pixels below which a frame is converted on the calling thread
+     */
+    private static final int PARALLEL_THRESHOLD = 64 * 1024;
+
+    private static final int SHIFT = 16;
+    private static final int HALF = 1 << (SHIFT - 1);
+
+    private static final int[] RED_V = new int[256];
+    private static final int[] GREEN_U = new int[256];
+    private static final int[] GREEN_V = new int[256];
+    private static final int[] BLUE_U = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = i - 128;
+            RED_V[i] = Math.round(1.402f * (1 << SHIFT)) * c;
+            GREEN_U[i] = -Math.round(0.344136f * (1 << SHIFT)) * c;
+            GREEN_V[i] = -Math.round(0.714136f * (1 << SHIFT)) * c;
+            BLUE_U[i] = Math.round(1.772f * (1 << SHIFT)) * c;
+        }
+    }
+
+    private int[] argb;
+    private byte[] luma;
+
+    /**
+     * @param factor 1, 2 or 4
+     * @return reused array of {@link #getOutputWidth}(width, factor) * {@link #getOutputHeight}(height, factor)
+     * ARGB pixels
+     */
+    public int[] toArgb(byte[] nv21, int width, int height, int factor) {
+        int size = getOutputWidth(width, factor) * getOutputHeight(height, factor);
+        if (argb == null || argb.length != size) {
+            argb = new int[size];
+        }
+        convertArgb(nv21, width, height, factor, argb);
+        return argb;
+    }
+
+    /**
+     * @param factor 1, 2 or 4
+     * @return reused array of {@link #getOutputWidth}(width, factor) * {@link #getOutputHeight}(height, factor)
+     * luma values
+     */
+    public byte[] toLuma(byte[] nv21, int width, int height, int factor) {
+        int size = getOutputWidth(width, factor) * getOutputHeight(height, factor);
+        if (luma == null || luma.length != size) {
+            luma = new byte[size];
+        }
+        convertLuma(nv21, width, height, factor, luma);
+        return luma;
+    }
+
+    public static int getOutputWidth(int width, int factor) {
+        return width / factor;
+    }
+
+    public static int getOutputHeight(int height, int factor) {
+        return height / factor;
+    }
+
+    public static void convertArgb(final byte[] nv21, final int width, final int height, final int factor,
+                                   final int[] out) {
+        checkFactor(factor);
+        run(getOutputWidth(width, factor), getOutputHeight(height, factor), new Band() {
+
+            @Override
+            public void convert(int from, int to) {
+                if (factor == 1) {
+                    argbRows(nv21, width, height, from, to, out);
+                } else {
+                    argbRowsDownsampled(nv21, width, height, factor, from, to, out);
+                }
+            }
+        });
+    }
+
+    public static void convertLuma(final byte[] nv21, final int width, final int height, final int factor,
+                                   final byte[] out) {
+        checkFactor(factor);
+        if (factor == 1) {
+            System.arraycopy(nv21, 0, out, 0, width * height);
+            return;
+        }
+        run(getOutputWidth(width, factor), getOutputHeight(height, factor), new Band() {
+
+            @Override
+            public void convert(int from, int to) {
+                lumaRowsDownsampled(nv21, width, factor, from, to, out);
+            }
+        });
+    }
+
+    /**
+     * Rotates an NV21 frame clockwise by 90, 180 or 270 degrees into out, which must be as large as the frame.
+     * Width and height of the result are swapped for 90 and 270.
+     */
+    public static void rotate(byte[] nv21, int width, int height, int degrees, byte[] out) {
+        int frameSize = width * height;
+        switch (degrees) {
+            case 90:
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        out[x * height + height - 1 - y] = nv21[y * width + x];
+                    }
+                }
+                break;
+            case 180:
+                for (int i = 0; i < frameSize; i++) {
+                    out[frameSize - 1 - i] = nv21[i];
+                }
+                break;
+            case 270:
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        out[(width - 1 - x) * height + y] = nv21[y * width + x];
+                    }
+                }
+                break;
+            default:
+                System.arraycopy(nv21, 0, out, 0, nv21.length);
+                return;
+        }
+        // chroma is a half size grid of V, U pairs and turns the same way
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        for (int y = 0; y < chromaHeight; y++) {
+            for (int x = 0; x < chromaWidth; x++) {
+                int to;
+                switch (degrees) {
+                    case 90:
+                        to = x * chromaHeight + chromaHeight - 1 - y;
+                        break;
+                    case 180:
+                        to = (chromaHeight - 1 - y) * chromaWidth + chromaWidth - 1 - x;
+                        break;
+                    default:
+                        to = (chromaWidth - 1 - x) * chromaHeight + y;
+                        break;
+                }
+                int from = frameSize + 2 * (y * chromaWidth + x);
+                out[frameSize + 2 * to] = nv21[from];
+                out[frameSize + 2 * to + 1] = nv21[from + 1];
+            }
+        }
+    }
+
+    private static void checkFactor(int factor) {
+        if (factor != 1 && factor != 2 && factor != 4) {
+            throw new IllegalArgumentException("Unsupported downsampling factor " + factor);
+        }
+    }
+
+    /**
+     * Converts output rows [from, to) at full size. Each chroma pair covers 2x2 pixels.
+     */
+    private static void argbRows(byte[] nv21, int width, int height, int from, int to, int[] out) {
+        int frameSize = width * height;
+        for (int y = from; y < to; y++) {
+            int yIndex = y * width;
+            int uvIndex = frameSize + (y >> 1) * width;
+            for (int x = 0; x < width; x += 2) {
+                int v = nv21[uvIndex++] & 0xFF;
+                int u = nv21[uvIndex++] & 0xFF;
+                int red = RED_V[v];
+                int green = GREEN_U[u] + GREEN_V[v];
+                int blue = BLUE_U[u];
+                out[yIndex] = toArgb((nv21[yIndex] & 0xFF) << SHIFT, red, green, blue);
+                yIndex++;
+                if (x + 1 < width) {
+                    out[yIndex] = toArgb((nv21[yIndex] & 0xFF) << SHIFT, red, green, blue);
+                    yIndex++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts output rows [from, to), averaging factor x factor luma and (factor / 2)^2 chroma samples per pixel.
+     */
+    private static void argbRowsDownsampled(byte[] nv21, int width, int height, int factor, int from, int to,
+                                            int[] out) {
+        int frameSize = width * height;
+        int outWidth = getOutputWidth(width, factor);
+        int chroma = factor / 2;
+        int lumaShift = factor == 2 ? 2 : 4;
+        int chromaShift = chroma == 1 ? 0 : 2;
+        for (int y = from; y < to; y++) {
+            int outIndex = y * outWidth;
+            int top = y * factor;
+            for (int x = 0; x < outWidth; x++) {
+                int left = x * factor;
+                int sumY = 0;
+                for (int dy = 0; dy < factor; dy++) {
+                    int row = (top + dy) * width + left;
+                    for (int dx = 0; dx < factor; dx++) {
+                        sumY += nv21[row + dx] & 0xFF;
+                    }
+                }
+                int sumU = 0;
+                int sumV = 0;
+                for (int dy = 0; dy < chroma; dy++) {
+                    int row = frameSize + ((top >> 1) + dy) * width + left;
+                    for (int dx = 0; dx < chroma; dx++) {
+                        sumV += nv21[row + 2 * dx] & 0xFF;
+                        sumU += nv21[row + 2 * dx + 1] & 0xFF;
+                    }
+                }
+                int v = sumV >> chromaShift;
+                int u = sumU >> chromaShift;
+                out[outIndex++] = toArgb((sumY << SHIFT) >> lumaShift, RED_V[v], GREEN_U[u] + GREEN_V[v], BLUE_U[u]);
+            }
+        }
+    }
+
+    private static void lumaRowsDownsampled(byte[] nv21, int width, int factor, int from, int to, byte[] out) {
+        int outWidth = getOutputWidth(width, factor);
+        int shift = factor == 2 ? 2 : 4;
+        int round = 1 << (shift - 1);
+        for (int y = from; y < to; y++) {
+            int outIndex = y * outWidth;
+            int top = y * factor;
+            for (int x = 0; x < outWidth; x++) {
+                int left = x * factor;
+                int sum = 0;
+                for (int dy = 0; dy < factor; dy++) {
+                    int row = (top + dy) * width + left;
+                    for (int dx = 0; dx < factor; dx++) {
+                        sum += nv21[row + dx] & 0xFF;
+                    }
+                }
+                out[outIndex++] = (byte) ((sum + round) >> shift);
+            }
+        }
+    }
+
+    private static int toArgb(int luma, int red, int green, int blue) {
+        return 0xFF000000 | clamp(luma + red) << 16 | clamp(luma + green) << 8 | clamp(luma + blue);
+    }
+
+    private static int clamp(int value) {
+        value = (value + HALF) >> SHIFT;
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    private interface Band {
+
+        public void convert(int from, int to);
+
+    }
+
+    /**
+     * Splits output rows into one band per core, or converts on the calling thread if the output is small.
+     */
+    private static void run(int outWidth, int outHeight, final Band band) {
+        if (outWidth * outHeight < PARALLEL_THRESHOLD || WorkerPool.CPU_COUNT == 1) {
+            band.convert(0, outHeight);
+            return;
+        }
+        int bands = WorkerPool.CPU_COUNT;
+        int rows = (outHeight + bands - 1) / bands;
+        List<Callable<Void>> tasks = new ArrayList<>(bands);
+        for (int from = 0; from < outHeight; from += rows) {
+            final int bandFrom = from;
+            final int bandTo = Math.min(from + rows, outHeight);
+            tasks.add(new Callable<Void>() {
+
+                @Override
+                public Void call() {
+                    band.convert(bandFrom, bandTo);
+                    return null;
+                }
+            });
+        }
+        WorkerPool.invokeAll(tasks);
+    }
+
+}